@@ -4,13 +4,22 @@
 
 package cl.ucn.disc.pa.bibliotech;
 
-import cl.ucn.disc.pa.bibliotech.model.Libro;
+import cl.ucn.disc.pa.bibliotech.api.ServidorHttp;
+import cl.ucn.disc.pa.bibliotech.model.FacetaCategoria;
+import cl.ucn.disc.pa.bibliotech.model.PaginaCatalogo;
+import cl.ucn.disc.pa.bibliotech.model.VistaLibro;
+import cl.ucn.disc.pa.bibliotech.services.CriterioFragmento;
+import cl.ucn.disc.pa.bibliotech.services.FiltroCatalogo;
+import cl.ucn.disc.pa.bibliotech.services.ProgresoCarga;
+import cl.ucn.disc.pa.bibliotech.services.RepositorioJdbc;
+import cl.ucn.disc.pa.bibliotech.services.RepositorioJson;
 import cl.ucn.disc.pa.bibliotech.services.Sistema;
 import cl.ucn.disc.pa.bibliotech.services.Utils;
 import edu.princeton.cs.stdlib.StdIn;
 import edu.princeton.cs.stdlib.StdOut;
 
 import java.io.IOException;
+import java.util.List;
 import java.util.Objects;
 
 /**
@@ -21,6 +30,21 @@ import java.util.Objects;
  */
 public final class Main {
 
+    /**
+     * Cantidad de libros por página al desplegar el catálogo.
+     */
+    private static final int TAMANIO_PAGINA = 10;
+
+    /**
+     * Cantidad de libros a desplegar entre los mejor calificados.
+     */
+    private static final int CANTIDAD_MEJORES = 10;
+
+    /**
+     * Cantidad de operaciones que provoca la escritura inmediata de la bitacora (con escritura diferida).
+     */
+    private static final int LOTE_ESCRITURA_DIFERIDA = 100;
+
     /**
      * The main.
      *
@@ -29,8 +53,20 @@ public final class Main {
      */
     public static void main(final String[] args) throws Exception {
 
-        // Se inicia el sistema.
-        Sistema sistema = new Sistema();
+        // Se inicia el sistema (con una base de datos embebida si se indica -Dbibliotech.jdbc=<url>).
+        String url = System.getProperty("bibliotech.jdbc");
+        Sistema sistema = url == null
+                ? new Sistema(crearRepositorioJson(), ProgresoCarga.NINGUNO)
+                : new Sistema(new RepositorioJdbc(url), ProgresoCarga.NINGUNO);
+
+        // Se atiende la API HTTP en localhost si se indica -Dbibliotech.http=<puerto>.
+        String puerto = System.getProperty("bibliotech.http");
+        ServidorHttp servidor = null;
+        if (puerto != null) {
+            servidor = new ServidorHttp(sistema, Integer.parseInt(puerto));
+            servidor.iniciar();
+            StdOut.println("API HTTP en http://localhost:" + servidor.getPuerto() + "/api");
+        }
 
         //StdOut.println(sistema.obtegerCatalogoLibros());
 
@@ -56,6 +92,45 @@ public final class Main {
                 default -> StdOut.println("Opcion no valida, intente nuevamente");
             }
         }
+
+        // Se escriben las operaciones pendientes antes de salir.
+        if (servidor != null) {
+            servidor.close();
+        }
+        sistema.cerrar();
+    }
+
+    /**
+     * Crea el repositorio basado en archivos JSON, según las opciones indicadas:
+     * -Dbibliotech.fragmentos=<CATEGORIA|ISBN>:<cantidad> divide el catálogo en fragmentos;
+     * -Dbibliotech.diferida=<latencia en ms> activa la escritura diferida de la bitacora;
+     * -Dbibliotech.compacto=true escribe los archivos JSON sin espacios ni saltos de línea;
+     * -Dbibliotech.gzip=true comprime los archivos de datos, y -Dbibliotech.gzip.bitacora=true la bitacora.
+     *
+     * @return el repositorio.
+     * @throws IOException en caso de un error.
+     */
+    private static RepositorioJson crearRepositorioJson() throws IOException {
+        String fragmentos = System.getProperty("bibliotech.fragmentos");
+        RepositorioJson repositorio;
+        if (fragmentos == null) {
+            repositorio = new RepositorioJson();
+        } else {
+            String[] partes = fragmentos.split(":");
+            if (partes.length != 2) {
+                throw new IllegalArgumentException("Fragmentos no válidos (<CATEGORIA|ISBN>:<cantidad>): " + fragmentos);
+            }
+            repositorio = new RepositorioJson(CriterioFragmento.valueOf(partes[0].trim().toUpperCase()),
+                    Integer.parseInt(partes[1].trim()));
+        }
+        repositorio.configurarFormato(Boolean.getBoolean("bibliotech.compacto"),
+                Boolean.getBoolean("bibliotech.gzip"), Boolean.getBoolean("bibliotech.gzip.bitacora"));
+
+        String latencia = System.getProperty("bibliotech.diferida");
+        if (latencia != null) {
+            repositorio.activarEscrituraDiferida(Long.parseLong(latencia), LOTE_ESCRITURA_DIFERIDA);
+        }
+        return repositorio;
     }
 
     /**
@@ -85,22 +160,23 @@ public final class Main {
         StdOut.print("Ingrese su contrasenia: ");
         String contrasenia = StdIn.readString();
 
-        // Se intenta el inicio de sesión.
+        // Se intenta el inicio de sesión (se recibe el token de la sesión).
+        String sesion;
         try {
-            sistema.iniciarSession(numeroSocio, contrasenia);
+            sesion = sistema.iniciarSession(numeroSocio, contrasenia);
         } catch (Exception ex) {
             StdOut.println("Ocurrio un error: " + ex.getMessage());
             return;
         }
 
         // Se muestra el menú principal
-        menuPrincipal(sistema);
+        menuPrincipal(sistema, sesion);
     }
 
-    private static void menuPrincipal(final Sistema sistema) throws Exception {
-        //Mientras no se elija la opción 5 (cerrar sesión), el programa continúa.
+    private static void menuPrincipal(final Sistema sistema, final String sesion) throws Exception {
+        //Mientras no se elija la opción 8 (cerrar sesión), el programa continúa.
         String opcion = null;
-        while (!Objects.equals(opcion, "5")) {
+        while (!Objects.equals(opcion, "8")) {
             StdOut.println("""
                     [*] BiblioTech [*]
                                         
@@ -108,26 +184,140 @@ public final class Main {
                     [2] Editar información
                     [3] Calificar libro
                     [4] Devolver un libro
+                    [5] Buscar un libro
+                    [6] Ver categorías
+                    [7] Mejor calificados
                                         
                                         
-                    [5] Cerrar sesion
+                    [8] Cerrar sesion
                     """);
 
             StdOut.print("Escoja una opcion: ");
             opcion = StdIn.readString();
 
             switch (opcion) {
-                case "1" -> menuPrestamo(sistema);
-                case "2" -> editarInformacion(sistema);
-                case "3" -> agregarCalificacion(sistema);
-                case "4" -> devolverLibro(sistema);
-                case "5" -> sistema.cerrarSession();
+                case "1" -> menuPrestamo(sistema, sesion);
+                case "2" -> editarInformacion(sistema, sesion);
+                case "3" -> agregarCalificacion(sistema, sesion);
+                case "4" -> devolverLibro(sistema, sesion);
+                case "5" -> buscarLibro(sistema);
+                case "6" -> verCategorias(sistema);
+                case "7" -> verMejorCalificados(sistema);
+                case "8" -> sistema.cerrarSession(sesion);
                 default -> StdOut.println("Opcion no valida, intente nuevamente");
             }
         }
     }
 
-    private static void menuPrestamo(Sistema sistema) throws Exception {
+    private static void buscarLibro(Sistema sistema) {
+        //Búsqueda de libros por palabras del título o del autor.
+        StdOut.println("[*] Buscar un Libro [*]");
+        StdIn.readLine();
+        StdOut.print("Ingrese palabras del título o del autor: ");
+        String consulta = StdIn.readLine();
+
+        List<String> isbns = sistema.buscarLibros(consulta, 20);
+        if (isbns.isEmpty()) {
+            StdOut.println("No se encontraron libros.");
+            return;
+        }
+
+        //Se despliegan los libros encontrados, del más al menos relevante.
+        for (String isbn : isbns) {
+            VistaLibro libro = sistema.obtenerLibro(isbn);
+            StdOut.println("Titulo    : " + libro.getTitulo());
+            StdOut.println("Autor     : " + libro.getAutor());
+            StdOut.println("ISBN      : " + libro.getIsbn());
+            StdOut.println("Categoria : " + libro.getCategoria());
+            StdOut.println("Estado    : " + (libro.getPrestado() ? "Prestado" : "Disponible"));
+            StdOut.println();
+        }
+    }
+
+    private static void verMejorCalificados(Sistema sistema) {
+        //Se despliegan los libros con mejor calificación promedio (con una cantidad minima de votos).
+        StdOut.println("[*] Mejor calificados [*]");
+        List<String> isbns = sistema.obtenerMejorCalificados(CANTIDAD_MEJORES, null);
+        if (isbns.isEmpty()) {
+            StdOut.println("Atención: Aún no hay libros con suficientes calificaciones.");
+            return;
+        }
+        for (int i = 0; i < isbns.size(); i++) {
+            VistaLibro libro = sistema.obtenerLibro(isbns.get(i));
+            StdOut.println("[" + (i + 1) + "] " + libro.getTitulo() + " (ISBN " + libro.getIsbn() + ") - "
+                    + String.format("%.1f", sistema.obtenerCalificacion(libro.getIsbn())) + " estrellas, "
+                    + sistema.obtenerVotos(libro.getIsbn()) + " votos");
+        }
+    }
+
+    private static void verCategorias(Sistema sistema) {
+        //Se despliegan las categorías, con la cantidad de libros disponibles de cada una.
+        StdOut.println("[*] Categorías [*]");
+        List<FacetaCategoria> categorias = sistema.obtenerCategorias();
+        if (categorias.isEmpty()) {
+            StdOut.println("Atención: No hay libros en el sistema.");
+            return;
+        }
+        for (int i = 0; i < categorias.size(); i++) {
+            FacetaCategoria categoria = categorias.get(i);
+            StdOut.println("[" + (i + 1) + "] " + categoria.getNombre() + " (" + categoria.getDisponibles()
+                    + " de " + categoria.getTotal() + " disponibles)");
+        }
+
+        int opcion;
+        try {
+            StdOut.print("Escoja una categoría (0 para volver): ");
+            opcion = StdIn.readInt();
+        } catch (Exception exception) {
+            StdOut.println("Opcion no valida.");
+            return;
+        }
+        if (opcion < 1 || opcion > categorias.size()) {
+            return;
+        }
+
+        //Se despliegan los libros de la categoría escogida.
+        for (String isbn : sistema.obtenerLibrosCategoria(categorias.get(opcion - 1).getNombre())) {
+            VistaLibro libro = sistema.obtenerLibro(isbn);
+            StdOut.println(libro.getTitulo() + " (ISBN " + libro.getIsbn() + ") - "
+                    + (libro.getPrestado() ? "Prestado" : "Disponible"));
+        }
+    }
+
+    /**
+     * Despliega el catálogo por páginas, hasta que se ingrese el ISBN de un libro.
+     * Solo se arma y se imprime una página a la vez.
+     *
+     * @param sistema a utilizar.
+     * @param filtro  de los libros a desplegar.
+     * @param mensaje para pedir el ISBN.
+     * @return el ISBN ingresado, o null si no hay libros que desplegar.
+     */
+    private static String elegirLibro(Sistema sistema, FiltroCatalogo filtro, String mensaje) {
+        PaginaCatalogo pagina = sistema.obtenerPaginaCatalogo(filtro, null, TAMANIO_PAGINA);
+        if (pagina.getLibros().isEmpty()) {
+            return null;
+        }
+
+        while (true) {
+            StdOut.print(pagina.getTexto());
+
+            //Si quedan libros, se puede pedir la siguiente página.
+            if (pagina.haySiguiente()) {
+                StdOut.print(mensaje + " ([S] para ver más libros): ");
+            } else {
+                StdOut.print(mensaje + ": ");
+            }
+            String isbn = StdIn.readString();
+            if (pagina.haySiguiente() && isbn.equalsIgnoreCase("S")) {
+                pagina = sistema.obtenerPaginaCatalogo(filtro, pagina.getSiguiente(), TAMANIO_PAGINA);
+            } else {
+                return isbn;
+            }
+        }
+    }
+
+    private static void menuPrestamo(Sistema sistema, String sesion) throws Exception {
         //Préstamo de libro.
         StdOut.println("[*] Préstamo de un Libro [*]");
         String isbn;
@@ -135,26 +325,19 @@ public final class Main {
         //En caso que la cantidad actual de libros prestados del socio sea menor a su límite,
         //se puede prestar más.
 
-        if (sistema.cantidadLibrosSocio() < sistema.cantidadMaximaLibrosSocio()) {
+        if (sistema.cantidadLibrosSocio(sesion) < sistema.cantidadMaximaLibrosSocio(sesion)) {
             while (true) {
-                //Se despliega el catálogo
-                try {
-                    if (sistema.obtegerCatalogoLibros(0) != null) {
-                        StdOut.println(sistema.obtegerCatalogoLibros(0));
-                    } else {
-                        throw new Exception();
-                    }
-                } catch (Exception exception) {
-                    //Si no hay libros disponibles, se tira una excepción y se regresa al menú principal.
+                //Se despliega el catálogo de libros disponibles (por páginas), y se elige el libro.
+                isbn = elegirLibro(sistema, FiltroCatalogo.DISPONIBLES, "Ingrese el ISBN del libro a tomar prestado");
+                if (isbn == null) {
+                    //Si no hay libros disponibles, se regresa al menú principal.
                     StdOut.println("Atención: Todos los libros están prestados");
                     break;
                 }
 
-                StdOut.print("Ingrese el ISBN del libro a tomar prestado: ");
-                isbn = StdIn.readString();
                 try {
                     //Se realiza el préstamo con el ISBN requerido
-                    sistema.realizarPrestamoLibro(isbn);
+                    sistema.realizarPrestamoLibro(sesion, isbn);
                     StdOut.println("Préstamo realizado con éxito.");
                     break;
                 } catch (Exception exception) {
@@ -164,11 +347,11 @@ public final class Main {
                 }
             }
         } else {
-            StdOut.println("Error: Cantidad máxima de préstamos alcanzada. Cantidad máxima: " + sistema.cantidadMaximaLibrosSocio());
+            StdOut.println("Error: Cantidad máxima de préstamos alcanzada. Cantidad máxima: " + sistema.cantidadMaximaLibrosSocio(sesion));
         }
     }
 
-    private static void editarInformacion(Sistema sistema) throws IOException {
+    private static void editarInformacion(Sistema sistema, String sesion) throws IOException {
         //Se accede al menú de editar información. Mientras no se ingrese 5,
         //se continuará en este menú.
 
@@ -176,7 +359,7 @@ public final class Main {
         while (!Objects.equals(opcion, "5")) {
 
             StdOut.println("[*] Editar Perfil [*]");
-            StdOut.println(sistema.obtenerDatosSocioLogeado());
+            StdOut.println(sistema.obtenerDatosSocioLogeado(sesion));
             StdOut.println("""               
                     [1] Editar Correo Electrónico
                     [2] Editar Contraseña
@@ -189,17 +372,17 @@ public final class Main {
             opcion = StdIn.readString();
 
             switch (opcion) {
-                case "1" -> editarCorreo(sistema);
-                case "2" -> cambiarContrasenia(sistema);
-                case "3" -> editarNombreOApellido(sistema, 1);
-                case "4" -> editarNombreOApellido(sistema, 2);
+                case "1" -> editarCorreo(sistema, sesion);
+                case "2" -> cambiarContrasenia(sistema, sesion);
+                case "3" -> editarNombreOApellido(sistema, sesion, 1);
+                case "4" -> editarNombreOApellido(sistema, sesion, 2);
                 case "5" -> StdOut.println("Volviendo al menú anterior...");
                 default -> StdOut.println("Opcion no valida, intente nuevamente");
             }
         }
     }
 
-    private static void editarNombreOApellido(Sistema sistema, int nombre_o_apellido) throws IOException {
+    private static void editarNombreOApellido(Sistema sistema, String sesion, int nombre_o_apellido) throws IOException {
         //Este método funciona de igual forma pero para 2 términos diferentes.
         //Se ingresa el valor actual, y el valor nuevo (nombre o apellido).
 
@@ -214,7 +397,7 @@ public final class Main {
                 //Si el nombre ingresado no coincide con el nombre actual del socio,
                 //se pide que se ingrese de nuevo.
 
-                if (sistema.verificarNombre(valor_actual)) {
+                if (sistema.verificarNombre(sesion, valor_actual)) {
                     StdOut.println("Ingrese el nuevo nombre.");
                     valor_actual = StdIn.readString();
 
@@ -227,7 +410,7 @@ public final class Main {
 
                         if (valor_nuevo.equals(valor_actual)) {
                             //El sistema realiza el cambio de nombre.
-                            sistema.cambioDeNombre(valor_nuevo);
+                            sistema.cambioDeNombre(sesion, valor_nuevo);
                             break;
                         } else {
                             StdOut.println("El nombre a confirmar no es el mismo al ingresado anteriormente. Intente de nuevo.");
@@ -245,7 +428,7 @@ public final class Main {
                 StdOut.println("Ingrese su apellido actual: ");
                 valor_actual = StdIn.readString();
 
-                if (sistema.verificarApellido(valor_actual)) {
+                if (sistema.verificarApellido(sesion, valor_actual)) {
                     StdOut.println("Ingrese el nuevo apellido.");
                     valor_actual = StdIn.readString();
 
@@ -257,7 +440,7 @@ public final class Main {
                         //pide que se ingrese correctamente.
 
                         if (valor_nuevo.equals(valor_actual)) {
-                            sistema.cambioDeApellido(valor_nuevo);
+                            sistema.cambioDeApellido(sesion, valor_nuevo);
                             break;
                         } else {
                             StdOut.println("El apellido a confirmar no es el mismo al ingresado anteriormente. Intente de nuevo.");
@@ -271,14 +454,14 @@ public final class Main {
         }
     }
 
-    private static void cambiarContrasenia(Sistema sistema) throws IOException {
+    private static void cambiarContrasenia(Sistema sistema, String sesion) throws IOException {
         while (true) {
             StdOut.println("Ingrese su contraseña actual: ");
             String contrasenia = StdIn.readString();
 
             //Si la contraseña coincide, se pide ingreso de la nueva y se confirma.
 
-            if (sistema.verificarContraseniaSocioLoggeado(contrasenia)) {
+            if (sistema.verificarContraseniaSocioLoggeado(sesion, contrasenia)) {
                 StdOut.println("Ingrese la nueva contraseña.");
                 contrasenia = StdIn.readString();
 
@@ -287,7 +470,7 @@ public final class Main {
                     String nueva_contrasenia = StdIn.readString();
 
                     if (contrasenia.equals(nueva_contrasenia)) {
-                        sistema.cambioDeContrasenia(nueva_contrasenia);
+                        sistema.cambioDeContrasenia(sesion, nueva_contrasenia);
                         break;
                     } else {
                         StdOut.println("Las contraseñas ingresadas no coinciden. Intente de nuevo.");
@@ -300,7 +483,7 @@ public final class Main {
         }
     }
 
-    private static void editarCorreo(Sistema sistema) throws IOException {
+    private static void editarCorreo(Sistema sistema, String sesion) throws IOException {
         while (true) {
             String correo;
             String nuevo_correo;
@@ -319,7 +502,7 @@ public final class Main {
                 }
             }
 
-            if (sistema.verificarCorreo(correo)) {
+            if (sistema.verificarCorreo(sesion, correo)) {
 
                 //Se ingresa el correo nuevo, y se confirma.
                 while (true) {
@@ -349,7 +532,7 @@ public final class Main {
                     }
                 }
                 //Se realiza el cambio de correo.
-                sistema.cambioDeCorreo(nuevo_correo);
+                sistema.cambioDeCorreo(sesion, nuevo_correo);
                 break;
             } else {
                 StdOut.println("El correo es incorrecto. Intente de nuevo.");
@@ -357,29 +540,22 @@ public final class Main {
         }
     }
 
-    private static void agregarCalificacion(Sistema sistema) throws IOException {
+    private static void agregarCalificacion(Sistema sistema, String sesion) throws IOException {
         String isbn;
-        //Se imprime todo el registro de libros que hay en el sistema.
+        //Se imprime el registro de libros que hay en el sistema (por páginas).
 
         while (true) {
-            try {
-                if (sistema.obtegerCatalogoLibros(1) != null) {
-                    StdOut.println(sistema.obtegerCatalogoLibros(1));
-                } else {
-                    throw new Exception();
-                }
-            } catch (Exception exception) {
+            isbn = elegirLibro(sistema, FiltroCatalogo.TODOS, "Ingrese el ISBN del libro a calificar");
+            if (isbn == null) {
                 StdOut.println("Atención: No hay libros en el sistema.");
                 break;
             }
 
-            Libro libro;
+            VistaLibro libro;
 
-            //Se ingresa el isbn del libro. Se busca, y en caso que no exista, se captura la excepción.
+            //Se busca el libro, y en caso que no exista, se captura la excepción.
 
             try {
-                StdOut.print("Ingrese el ISBN del libro a calificar: ");
-                isbn = StdIn.readString();
                 libro = sistema.obtenerLibro(isbn);
             } catch (Exception exception) {
                 StdOut.println("El libro no está disponible o no existe.");
@@ -408,9 +584,9 @@ public final class Main {
             }
             //Se agrega la calificación al libro, con su cantidad de estrellas correspondiente.
             try {
-                sistema.calificarLibro(libro, estrellas);
+                sistema.calificarLibro(sesion, libro.getIsbn(), estrellas);
                 StdOut.println("Calificación exitosa.");
-                StdOut.println("Calificación actual del libro: " + libro.getCalificacion());
+                StdOut.println("Calificación actual del libro: " + sistema.obtenerCalificacion(libro.getIsbn()));
             } catch (Exception exception) {
                 StdOut.println("Ha ocurrido un error. Intente de nuevo.");
             }
@@ -418,18 +594,18 @@ public final class Main {
         }
     }
 
-    private static void devolverLibro(Sistema sistema) throws IOException {
+    private static void devolverLibro(Sistema sistema, String sesion) throws IOException {
         StdOut.println("[*] Devolver un Libro [*]");
         String isbn;
 
         //Si la cantidad actual de libros del socio es mayor a 1, se permite devolver un libro.
         //En caso contrario, no se podrá.
 
-        if (sistema.cantidadLibrosSocio() > 0) {
+        if (sistema.cantidadLibrosSocio(sesion) > 0) {
             while (true) {
                 try {
                     //Se obtiene el catálogo de los libros prestados por el socio.
-                    StdOut.println(sistema.obtenerLibrosSocio());
+                    StdOut.println(sistema.obtenerLibrosSocio(sesion));
                 } catch (Exception exception) {
                     StdOut.println("Atención: el socio no tiene libros prestados.");
                 }
@@ -440,7 +616,7 @@ public final class Main {
 
                 try {
                     //Se realiza la devolución del libro por parte del socio.
-                    sistema.realizarDevolucionLibro(isbn);
+                    sistema.realizarDevolucionLibro(sesion, isbn);
                     StdOut.println("Devolución de libro completada.");
                     break;
                 } catch (Exception exception) {
@@ -0,0 +1,552 @@
+/*
+ * Copyright (c) 2023. Programacion Avanzada, DISC, UCN.
+ */
+
+package cl.ucn.disc.pa.bibliotech.api;
+
+import cl.ucn.disc.pa.bibliotech.model.ConflictoDeVersionException;
+import cl.ucn.disc.pa.bibliotech.model.PaginaCatalogo;
+import cl.ucn.disc.pa.bibliotech.model.VistaLibro;
+import cl.ucn.disc.pa.bibliotech.services.FiltroCatalogo;
+import cl.ucn.disc.pa.bibliotech.services.Sistema;
+import com.google.gson.Gson;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * API HTTP/JSON del sistema, con el servidor HTTP incluido en el JDK (com.sun.net.httpserver). Escucha solo en
+ * localhost, y atiende cada solicitud en un hilo virtual propio (si la JVM los tiene; si no, en un pool de hilos),
+ * de modo que muchos clientes se atienden a la vez desde una sola instancia del sistema.
+ * <p>
+ * Las operaciones de un socio requieren el token de sesión entregado al iniciar sesión, en el encabezado
+ * "Authorization: Bearer &lt;token&gt;".
+ * <pre>
+ * POST   /api/sesiones              {"numeroDeSocio": 1, "contrasenia": "..."} -> {"sesion": "..."}
+ * DELETE /api/sesiones              cierra la sesión
+ * GET    /api/libros                ?filtro=TODOS|DISPONIBLES&amp;cursor=...&amp;tamanio=10 -> página del catálogo
+ * GET    /api/libros/{isbn}         datos del libro, su calificación y su versión
+ * POST   /api/prestamos             {"isbn": "..."} -> préstamo del libro
+ * DELETE /api/prestamos/{isbn}      devolución del libro
+ * POST   /api/calificaciones        {"isbn": "...", "estrellas": 0..5, "version"} -> calificación y versión
+ * GET    /api/perfil                datos del socio y versión del perfil
+ * PUT    /api/perfil                {"nombre", "apellido", "correo", "contrasenia", "version"} (al menos un dato)
+ * </pre>
+ * Si se indica la versión leída, el cambio es condicional: falla con 409 si otra sesión cambió el libro o perfil.
+ * Los errores se responden como {"error": "mensaje"}: 400 si los datos no son válidos, 401 sin sesión o con
+ * credenciales incorrectas, 404 si no existe el recurso, 405 si el método no corresponde y 409 si hay un conflicto
+ * de versión.
+ *
+ * @author Programacion Avanzada.
+ */
+public final class ServidorHttp implements AutoCloseable {
+
+    /**
+     * Procesador de JSON.
+     */
+    private static final Gson GSON = new Gson();
+
+    /**
+     * Tamaño de página por defecto.
+     */
+    private static final int TAMANIO_PAGINA = 10;
+
+    /**
+     * Tamaño maximo de una página.
+     */
+    private static final int TAMANIO_MAXIMO = 100;
+
+    /**
+     * Cantidad maxima de estrellas de una calificación.
+     */
+    private static final int MAXIMO_ESTRELLAS = 5;
+
+    /**
+     * Prefijo del encabezado con el token de sesión.
+     */
+    private static final String BEARER = "Bearer ";
+
+    /**
+     * El sistema.
+     */
+    private final Sistema sistema;
+
+    /**
+     * El servidor HTTP.
+     */
+    private final HttpServer servidor;
+
+    /**
+     * Ejecutor de las solicitudes.
+     */
+    private final ExecutorService ejecutor;
+
+    /**
+     * The Constructor: prepara el servidor (no lo inicia).
+     *
+     * @param sistema a exponer.
+     * @param puerto  en localhost (0 para uno libre).
+     * @throws IOException si no se puede abrir el puerto.
+     */
+    public ServidorHttp(final Sistema sistema, final int puerto) throws IOException {
+        if (sistema == null) {
+            throw new IllegalArgumentException("El sistema no puede ser null.");
+        }
+        this.sistema = sistema;
+        this.servidor = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), puerto), 0);
+        this.ejecutor = crearEjecutor();
+        this.servidor.setExecutor(this.ejecutor);
+
+        this.servidor.createContext("/api/sesiones", exchange -> this.atender(exchange, this::sesiones));
+        this.servidor.createContext("/api/libros", exchange -> this.atender(exchange, this::libros));
+        this.servidor.createContext("/api/prestamos", exchange -> this.atender(exchange, this::prestamos));
+        this.servidor.createContext("/api/calificaciones", exchange -> this.atender(exchange, this::calificaciones));
+        this.servidor.createContext("/api/perfil", exchange -> this.atender(exchange, this::perfil));
+    }
+
+    /**
+     * Método iniciar: empieza a atender solicitudes.
+     */
+    public void iniciar() {
+        this.servidor.start();
+    }
+
+    /**
+     * @return el puerto en que escucha el servidor.
+     */
+    public int getPuerto() {
+        return this.servidor.getAddress().getPort();
+    }
+
+    /**
+     * Método close: deja de recibir solicitudes, espera (a lo más un segundo) las que están en curso y libera los
+     * hilos.
+     */
+    @Override
+    public void close() {
+        this.servidor.stop(1);
+        this.ejecutor.shutdown();
+        try {
+            this.ejecutor.awaitTermination(1, TimeUnit.SECONDS);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Método crearEjecutor: un hilo virtual por solicitud (Executors.newVirtualThreadPerTaskExecutor, si la JVM lo
+     * tiene), o si no, un pool que crea hilos a medida que se necesitan.
+     *
+     * @return el ejecutor.
+     */
+    private static ExecutorService crearEjecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException ex) {
+            return Executors.newCachedThreadPool(tarea -> {
+                Thread hilo = new Thread(tarea, "bibliotech-http");
+                hilo.setDaemon(true);
+                return hilo;
+            });
+        }
+    }
+
+    /**
+     * POST: inicia sesión. DELETE: cierra la sesión.
+     *
+     * @param exchange la solicitud.
+     * @throws Exception en caso de algun error.
+     */
+    private void sesiones(final HttpExchange exchange) throws Exception {
+        switch (exchange.getRequestMethod()) {
+            case "POST" -> {
+                JsonObject datos = leerJson(exchange);
+                int numeroDeSocio = entero(datos, "numeroDeSocio");
+                String contrasenia = texto(datos, "contrasenia");
+                String sesion;
+                try {
+                    sesion = this.sistema.iniciarSession(numeroDeSocio, contrasenia);
+                } catch (IllegalArgumentException ex) {
+                    throw new ErrorHttp(401, ex.getMessage());
+                }
+                responder(exchange, 201, Map.of("sesion", sesion));
+            }
+            case "DELETE" -> {
+                this.sistema.cerrarSession(this.sesion(exchange));
+                responder(exchange, 204, null);
+            }
+            default -> throw new ErrorHttp(405, "Método no permitido.");
+        }
+    }
+
+    /**
+     * GET: una página del catálogo, o un libro (por su ISBN).
+     *
+     * @param exchange la solicitud.
+     * @throws Exception en caso de algun error.
+     */
+    private void libros(final HttpExchange exchange) throws Exception {
+        if (!"GET".equals(exchange.getRequestMethod())) {
+            throw new ErrorHttp(405, "Método no permitido.");
+        }
+
+        String isbn = recurso(exchange, "/api/libros");
+        if (isbn != null) {
+            VistaLibro libro = this.libro(isbn);
+            Map<String, Object> respuesta = new LinkedHashMap<>();
+            respuesta.put("libro", libro);
+            respuesta.put("calificacion", this.sistema.obtenerCalificacion(isbn));
+            respuesta.put("votos", this.sistema.obtenerVotos(isbn));
+            respuesta.put("version", this.sistema.obtenerVersionCalificaciones(isbn));
+            responder(exchange, 200, respuesta);
+            return;
+        }
+
+        Map<String, String> parametros = parametros(exchange);
+        FiltroCatalogo filtro;
+        try {
+            filtro = FiltroCatalogo.valueOf(parametros.getOrDefault("filtro", FiltroCatalogo.TODOS.name()));
+        } catch (IllegalArgumentException ex) {
+            throw new IllegalArgumentException("Filtro no válido: " + parametros.get("filtro"));
+        }
+        int tamanio;
+        try {
+            tamanio = Integer.parseInt(parametros.getOrDefault("tamanio", String.valueOf(TAMANIO_PAGINA)));
+        } catch (NumberFormatException ex) {
+            throw new IllegalArgumentException("Tamaño de página no válido.");
+        }
+        if (tamanio > TAMANIO_MAXIMO) {
+            throw new IllegalArgumentException("El tamaño de la página debe ser a lo más " + TAMANIO_MAXIMO + ".");
+        }
+
+        PaginaCatalogo pagina = this.sistema.obtenerPaginaCatalogo(filtro, parametros.get("cursor"), tamanio);
+        Map<String, Object> respuesta = new LinkedHashMap<>();
+        respuesta.put("libros", pagina.getLibros());
+        respuesta.put("siguiente", pagina.getSiguiente());
+        responder(exchange, 200, respuesta);
+    }
+
+    /**
+     * POST: préstamo de un libro. DELETE /{isbn}: devolución del libro.
+     *
+     * @param exchange la solicitud.
+     * @throws Exception en caso de algun error.
+     */
+    private void prestamos(final HttpExchange exchange) throws Exception {
+        String sesion = this.sesion(exchange);
+        switch (exchange.getRequestMethod()) {
+            case "POST" -> {
+                String isbn = texto(leerJson(exchange), "isbn");
+                this.libro(isbn);
+                this.sistema.realizarPrestamoLibro(sesion, isbn);
+                responder(exchange, 201, Map.of("isbn", isbn));
+            }
+            case "DELETE" -> {
+                String isbn = recurso(exchange, "/api/prestamos");
+                if (isbn == null) {
+                    throw new ErrorHttp(404, "Debe indicar el ISBN del libro a devolver.");
+                }
+                this.libro(isbn);
+                this.sistema.realizarDevolucionLibro(sesion, isbn);
+                responder(exchange, 204, null);
+            }
+            default -> throw new ErrorHttp(405, "Método no permitido.");
+        }
+    }
+
+    /**
+     * POST: califica un libro.
+     *
+     * @param exchange la solicitud.
+     * @throws Exception en caso de algun error.
+     */
+    private void calificaciones(final HttpExchange exchange) throws Exception {
+        if (!"POST".equals(exchange.getRequestMethod())) {
+            throw new ErrorHttp(405, "Método no permitido.");
+        }
+        String sesion = this.sesion(exchange);
+        JsonObject datos = leerJson(exchange);
+        String isbn = texto(datos, "isbn");
+        this.libro(isbn);
+        int estrellas = entero(datos, "estrellas");
+        if (estrellas < 0 || estrellas > MAXIMO_ESTRELLAS) {
+            throw new IllegalArgumentException("Cantidad inválida de estrellas (de 0 a " + MAXIMO_ESTRELLAS + ").");
+        }
+
+        int version = datos.has("version")
+                ? this.sistema.calificarLibro(sesion, isbn, estrellas, entero(datos, "version"))
+                : this.sistema.calificarLibro(sesion, isbn, estrellas);
+        Map<String, Object> respuesta = new LinkedHashMap<>();
+        respuesta.put("isbn", isbn);
+        respuesta.put("calificacion", this.sistema.obtenerCalificacion(isbn));
+        respuesta.put("version", version);
+        responder(exchange, 201, respuesta);
+    }
+
+    /**
+     * GET: datos del socio. PUT: cambia juntos los datos indicados del socio (sobre la versión indicada, o si no,
+     * sobre la actual).
+     *
+     * @param exchange la solicitud.
+     * @throws Exception en caso de algun error.
+     */
+    private void perfil(final HttpExchange exchange) throws Exception {
+        String sesion = this.sesion(exchange);
+        switch (exchange.getRequestMethod()) {
+            case "GET" -> responder(exchange, 200, this.perfil(sesion));
+            case "PUT" -> {
+                JsonObject datos = leerJson(exchange);
+                if (datos.has("version")) {
+                    this.sistema.actualizarPerfil(sesion, opcional(datos, "nombre"), opcional(datos, "apellido"),
+                            opcional(datos, "correo"), opcional(datos, "contrasenia"), entero(datos, "version"));
+                } else {
+                    this.sistema.actualizarPerfil(sesion, opcional(datos, "nombre"), opcional(datos, "apellido"),
+                            opcional(datos, "correo"), opcional(datos, "contrasenia"));
+                }
+                responder(exchange, 200, this.perfil(sesion));
+            }
+            default -> throw new ErrorHttp(405, "Método no permitido.");
+        }
+    }
+
+    /**
+     * Método perfil.
+     *
+     * @param sesion del socio.
+     * @return los datos y la versión del perfil del socio.
+     */
+    private Map<String, Object> perfil(final String sesion) {
+        Map<String, Object> respuesta = new LinkedHashMap<>();
+        respuesta.put("version", this.sistema.obtenerVersionPerfil(sesion));
+        respuesta.put("datos", this.sistema.obtenerDatosSocioLogeado(sesion));
+        return respuesta;
+    }
+
+    /**
+     * Método atender: ejecuta el manejador y responde los errores como JSON.
+     *
+     * @param exchange  la solicitud.
+     * @param manejador de la solicitud.
+     */
+    private void atender(final HttpExchange exchange, final Manejador manejador) {
+        try (exchange) {
+            try {
+                manejador.manejar(exchange);
+            } catch (ErrorHttp ex) {
+                responder(exchange, ex.estado, Map.of("error", ex.getMessage()));
+            } catch (ConflictoDeVersionException ex) {
+                responder(exchange, 409, Map.of("error", ex.getMessage(), "version", ex.getVersionActual()));
+            } catch (IllegalArgumentException | IllegalStateException | JsonParseException ex) {
+                responder(exchange, 400, Map.of("error", String.valueOf(ex.getMessage())));
+            } catch (Exception ex) {
+                // El detalle del error no se entrega al cliente.
+                responder(exchange, 500, Map.of("error", "Error interno."));
+            }
+        } catch (IOException ex) {
+            // El cliente cerró la conexión antes de recibir la respuesta.
+        }
+    }
+
+    /**
+     * Método libro.
+     *
+     * @param isbn del libro.
+     * @return los datos del libro.
+     * @throws ErrorHttp 404 si el libro no existe.
+     */
+    private VistaLibro libro(final String isbn) {
+        VistaLibro libro = this.sistema.obtenerLibro(isbn);
+        if (libro == null) {
+            throw new ErrorHttp(404, "Libro con isbn " + isbn + " no existe.");
+        }
+        return libro;
+    }
+
+    /**
+     * Método sesion.
+     *
+     * @param exchange la solicitud.
+     * @return el token de sesión del encabezado Authorization.
+     * @throws ErrorHttp 401 si no viene el encabezado o la sesión no está abierta.
+     */
+    private String sesion(final HttpExchange exchange) {
+        String autorizacion = exchange.getRequestHeaders().getFirst("Authorization");
+        if (autorizacion == null || !autorizacion.startsWith(BEARER)) {
+            throw new ErrorHttp(401, "Debe iniciar sesión.");
+        }
+        String sesion = autorizacion.substring(BEARER.length()).trim();
+        if (!this.sistema.sesionActiva(sesion)) {
+            throw new ErrorHttp(401, "El socio no se ha logeado.");
+        }
+        return sesion;
+    }
+
+    /**
+     * Método recurso.
+     *
+     * @param exchange la solicitud.
+     * @param base     ruta del contexto.
+     * @return lo que sigue a la ruta base (decodificado), o null si no hay nada.
+     */
+    private static String recurso(final HttpExchange exchange, final String base) {
+        String ruta = exchange.getRequestURI().getPath();
+        if (ruta.length() <= base.length() + 1) {
+            return null;
+        }
+        return URLDecoder.decode(ruta.substring(base.length() + 1), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Método parametros.
+     *
+     * @param exchange la solicitud.
+     * @return los parámetros de la consulta (decodificados).
+     */
+    private static Map<String, String> parametros(final HttpExchange exchange) {
+        Map<String, String> parametros = new HashMap<>();
+        String consulta = exchange.getRequestURI().getRawQuery();
+        if (consulta == null) {
+            return parametros;
+        }
+        for (String par : consulta.split("&")) {
+            int igual = par.indexOf('=');
+            if (igual > 0) {
+                parametros.put(URLDecoder.decode(par.substring(0, igual), StandardCharsets.UTF_8),
+                        URLDecoder.decode(par.substring(igual + 1), StandardCharsets.UTF_8));
+            }
+        }
+        return parametros;
+    }
+
+    /**
+     * Método leerJson.
+     *
+     * @param exchange la solicitud.
+     * @return el cuerpo de la solicitud (un objeto JSON).
+     * @throws IOException en caso de algun error.
+     */
+    private static JsonObject leerJson(final HttpExchange exchange) throws IOException {
+        try (Reader reader = new InputStreamReader(exchange.getRequestBody(), StandardCharsets.UTF_8)) {
+            JsonObject datos = GSON.fromJson(reader, JsonObject.class);
+            if (datos == null) {
+                throw new IllegalArgumentException("Se esperaba un objeto JSON.");
+            }
+            return datos;
+        }
+    }
+
+    /**
+     * @param datos objeto JSON.
+     * @param campo a leer.
+     * @return el texto del campo (obligatorio).
+     */
+    private static String texto(final JsonObject datos, final String campo) {
+        String valor = opcional(datos, campo);
+        if (valor == null) {
+            throw new IllegalArgumentException("Falta el campo " + campo + ".");
+        }
+        return valor;
+    }
+
+    /**
+     * @param datos objeto JSON.
+     * @param campo a leer.
+     * @return el texto del campo, o null si no viene.
+     */
+    private static String opcional(final JsonObject datos, final String campo) {
+        JsonElement valor = datos.get(campo);
+        return valor == null || valor.isJsonNull() ? null : valor.getAsString();
+    }
+
+    /**
+     * @param datos objeto JSON.
+     * @param campo a leer.
+     * @return el entero del campo (obligatorio).
+     */
+    private static int entero(final JsonObject datos, final String campo) {
+        try {
+            return Integer.parseInt(texto(datos, campo));
+        } catch (NumberFormatException ex) {
+            throw new IllegalArgumentException("El campo " + campo + " debe ser un número entero.");
+        }
+    }
+
+    /**
+     * Método responder: escribe la respuesta como JSON.
+     *
+     * @param exchange  la solicitud.
+     * @param estado    HTTP.
+     * @param contenido a escribir (null para una respuesta sin contenido).
+     * @throws IOException en caso de algun error.
+     */
+    private static void responder(final HttpExchange exchange, final int estado, final Object contenido)
+            throws IOException {
+        if (contenido == null) {
+            exchange.sendResponseHeaders(estado, -1);
+            return;
+        }
+        byte[] bytes = GSON.toJson(contenido).getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+        exchange.sendResponseHeaders(estado, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+
+    /**
+     * Manejador de una solicitud.
+     */
+    @FunctionalInterface
+    private interface Manejador {
+
+        /**
+         * @param exchange la solicitud.
+         * @throws Exception en caso de algun error.
+         */
+        void manejar(HttpExchange exchange) throws Exception;
+    }
+
+    /**
+     * Error que se responde con un estado HTTP distinto de 400.
+     */
+    private static final class ErrorHttp extends RuntimeException {
+
+        /**
+         * Version de la serialización.
+         */
+        private static final long serialVersionUID = 1L;
+
+        /**
+         * Estado HTTP de la respuesta.
+         */
+        private final int estado;
+
+        /**
+         * The Constructor.
+         *
+         * @param estado  HTTP.
+         * @param mensaje del error.
+         */
+        ErrorHttp(final int estado, final String mensaje) {
+            super(mensaje);
+            this.estado = estado;
+        }
+    }
+}
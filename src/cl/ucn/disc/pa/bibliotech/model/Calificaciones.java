@@ -0,0 +1,96 @@
+/*
+ * Copyright (c) 2023. Programacion Avanzada, DISC, UCN.
+ */
+
+package cl.ucn.disc.pa.bibliotech.model;
+
+import cl.ucn.disc.pa.bibliotech.util.TablaEnteros;
+
+/**
+ * Las calificaciones de un libro, guardadas en forma compacta: una tabla hash de enteros (TablaEnteros) con el
+ * numero de socio como llave y las estrellas como valor (en un byte), sin crear un objeto por calificación.
+ * <p>
+ * Agregar o cambiar la calificación de un socio es de tiempo constante (amortizado), y cada calificación ocupa unos
+ * 5 bytes más el espacio libre de la tabla.
+ *
+ * @author Programacion Avanzada.
+ */
+final class Calificaciones {
+
+    /**
+     * Cantidad maxima de estrellas de una calificación.
+     */
+    static final int MAXIMO_ESTRELLAS = 5;
+
+    /**
+     * Numero de socio -> estrellas de su calificación.
+     */
+    private final TablaEnteros tabla;
+
+    /**
+     * The Constructor.
+     *
+     * @param cantidadEsperada de calificaciones (para no hacer crecer la tabla al cargarlas).
+     */
+    Calificaciones(final int cantidadEsperada) {
+        this.tabla = new TablaEnteros(cantidadEsperada, MAXIMO_ESTRELLAS);
+    }
+
+    /**
+     * Método guardar: agrega la calificación del socio, o reemplaza la que ya tenía.
+     *
+     * @param numeroDeSocio que califica.
+     * @param estrellas     de la calificación (entre 0 y MAXIMO_ESTRELLAS).
+     * @return las estrellas de la calificación anterior del socio, o -1 si no tenía.
+     */
+    int guardar(final int numeroDeSocio, final int estrellas) {
+        if (estrellas < 0 || estrellas > MAXIMO_ESTRELLAS) {
+            throw new IllegalArgumentException("Cantidad de estrellas no válida: " + estrellas);
+        }
+        return this.tabla.guardar(numeroDeSocio, estrellas);
+    }
+
+    /**
+     * Método quitar: saca la calificación del socio.
+     *
+     * @param numeroDeSocio que calificó.
+     * @return las estrellas de la calificación quitada, o -1 si no tenía.
+     */
+    int quitar(final int numeroDeSocio) {
+        return this.tabla.quitar(numeroDeSocio);
+    }
+
+    /**
+     * Método buscar.
+     *
+     * @param numeroDeSocio a buscar.
+     * @return las estrellas de la calificación del socio, o -1 si no tiene.
+     */
+    int buscar(final int numeroDeSocio) {
+        return this.tabla.buscar(numeroDeSocio);
+    }
+
+    /**
+     * @return la cantidad de calificaciones.
+     */
+    int cantidad() {
+        return this.tabla.cantidad();
+    }
+
+    /**
+     * Método toArray.
+     *
+     * @return las calificaciones como objetos (en el orden de la tabla).
+     */
+    Calificacion[] toArray() {
+        Calificacion[] calificaciones = new Calificacion[this.tabla.cantidad()];
+        int i = 0;
+        for (int posicion = 0; posicion < this.tabla.capacidad(); posicion++) {
+            int estrellas = this.tabla.valorEn(posicion);
+            if (estrellas >= 0) {
+                calificaciones[i++] = new Calificacion(estrellas, this.tabla.llaveEn(posicion));
+            }
+        }
+        return calificaciones;
+    }
+}
@@ -0,0 +1,57 @@
+/*
+ * Copyright (c) 2023. Programacion Avanzada, DISC, UCN.
+ */
+
+package cl.ucn.disc.pa.bibliotech.model;
+
+/**
+ * Error de un cambio condicional: el libro o socio ya no está en la versión que se esperaba (otra sesión lo cambió
+ * antes). No se aplica ningún cambio; se deben leer de nuevo los datos y su versión, y volver a intentar.
+ *
+ * @author Programacion Avanzada.
+ */
+public final class ConflictoDeVersionException extends IllegalStateException {
+
+    /**
+     * Version de la serialización.
+     */
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * La versión que se esperaba.
+     */
+    private final int versionEsperada;
+
+    /**
+     * La versión actual.
+     */
+    private final int versionActual;
+
+    /**
+     * The Constructor.
+     *
+     * @param registro        que cambió (por ejemplo, "El socio 1").
+     * @param versionEsperada por el cambio.
+     * @param versionActual   del registro.
+     */
+    public ConflictoDeVersionException(final String registro, final int versionEsperada, final int versionActual) {
+        super(registro + " fue modificado por otra sesión (versión esperada: " + versionEsperada
+                + ", versión actual: " + versionActual + ").");
+        this.versionEsperada = versionEsperada;
+        this.versionActual = versionActual;
+    }
+
+    /**
+     * @return la versión que se esperaba.
+     */
+    public int getVersionEsperada() {
+        return this.versionEsperada;
+    }
+
+    /**
+     * @return la versión actual del registro.
+     */
+    public int getVersionActual() {
+        return this.versionActual;
+    }
+}
@@ -0,0 +1,62 @@
+/*
+ * Copyright (c) 2023. Programacion Avanzada, DISC, UCN.
+ */
+
+package cl.ucn.disc.pa.bibliotech.model;
+
+/**
+ * Resumen de una categoría del catálogo: cuántos libros tiene y cuántos están disponibles.
+ *
+ * @author Programacion Avanzada.
+ */
+public final class FacetaCategoria {
+
+    /**
+     * Nombre de la categoría.
+     */
+    private final String nombre;
+
+    /**
+     * Cantidad de libros de la categoría.
+     */
+    private final int total;
+
+    /**
+     * Cantidad de libros disponibles (no prestados) de la categoría.
+     */
+    private final int disponibles;
+
+    /**
+     * The Constructor.
+     *
+     * @param nombre      de la categoría.
+     * @param total       de libros.
+     * @param disponibles libros no prestados.
+     */
+    public FacetaCategoria(final String nombre, final int total, final int disponibles) {
+        this.nombre = nombre;
+        this.total = total;
+        this.disponibles = disponibles;
+    }
+
+    /**
+     * @return el nombre de la categoría.
+     */
+    public String getNombre() {
+        return this.nombre;
+    }
+
+    /**
+     * @return la cantidad de libros de la categoría.
+     */
+    public int getTotal() {
+        return this.total;
+    }
+
+    /**
+     * @return la cantidad de libros disponibles de la categoría.
+     */
+    public int getDisponibles() {
+        return this.disponibles;
+    }
+}
@@ -4,13 +4,33 @@
 
 package cl.ucn.disc.pa.bibliotech.model;
 
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+
 /**
  * Clase que representa un Libro.
+ * Las calificaciones del libro tienen un numero de versión, que aumenta con cada calificación: una calificación
+ * condicional indica la versión que leyó, y falla de inmediato (ConflictoDeVersionException) si el libro recibió
+ * otra calificación entre medio.
  *
  * @author Programacion Avanzada.
  */
 public final class Libro {
 
+    /**
+     * Acceso atómico (compare-and-set) al estado de préstamo, para que dos préstamos concurrentes del mismo libro
+     * no puedan tener éxito ambos.
+     */
+    private static final VarHandle PRESTADO;
+
+    static {
+        try {
+            PRESTADO = MethodHandles.lookup().findVarHandle(Libro.class, "prestado", boolean.class);
+        } catch (ReflectiveOperationException ex) {
+            throw new ExceptionInInitializerError(ex);
+        }
+    }
+
     /**
      * The ISBN.
      */
@@ -33,19 +53,43 @@ public final class Libro {
 
 
     /**
-     * The Lista de Calificaciones
+     * The Calificaciones (numero de socio -> estrellas, en forma compacta). No se guardan junto al libro: se cargan
+     * solo cuando se necesitan, y se crean con la primera calificación.
+     */
+    private transient Calificaciones calificaciones;
+
+    /**
+     * Si las calificaciones del libro están cargadas en memoria.
+     */
+    private transient boolean calificacionesCargadas;
+
+    /**
+     * Suma de las estrellas de todas las calificaciones (se guarda junto al libro, aunque las calificaciones no
+     * estén cargadas).
+     */
+    private int sumaEstrellas;
+
+    /**
+     * Cantidad de calificaciones (votos) del libro.
      */
-    private Calificacion[] calificaciones;
+    private int cantidadVotos;
 
     /**
-     * La cantidad de calificaciones
+     * Si el libro está prestado (true), o no (false). Se cambia atómicamente con reservar y liberar.
      */
-    private int cantidadCalificaciones;
+    private volatile boolean prestado;
 
     /**
-     * Si el libro está prestado (true), o no (false)
+     * Identificador interno del libro: un numero correlativo (desde 0) que asigna el sistema al cargarlo, para
+     * usarlo como posición en arreglos e indices en vez del ISBN. No se guarda.
      */
-    private boolean prestado;
+    private transient int id;
+
+    /**
+     * Versión de las calificaciones del libro. Se cambia solo con el candado del libro (como sus calificaciones);
+     * no se guarda, y parte en 0 al cargar el libro.
+     */
+    private transient volatile int version;
 
     /**
      * The Constructor.
@@ -78,7 +122,7 @@ public final class Libro {
         }
 
         //Un libro siempre empieza con 0 calificaciones, y no está prestado.
-        cantidadCalificaciones = 0;
+        calificacionesCargadas = true;
         this.categoria = categoria;
         this.prestado = false;
     }
@@ -90,6 +134,26 @@ public final class Libro {
         return this.isbn;
     }
 
+    /**
+     * @return el identificador interno del libro (asignado por el sistema).
+     */
+    public int getId() {
+        return this.id;
+    }
+
+    /**
+     * Método asignarId
+     * Asigna el identificador interno del libro (lo hace el sistema al agregarlo al catálogo).
+     *
+     * @param id correlativo del libro (0 o más).
+     */
+    public void asignarId(final int id) {
+        if (id < 0) {
+            throw new IllegalArgumentException("Identificador de libro no válido.");
+        }
+        this.id = id;
+    }
+
     /**
      * @return the titulo.
      */
@@ -114,74 +178,202 @@ public final class Libro {
     /**
      * Método sumarCalificacion
      * Permite añadir o editar una calificacion hecha por un socio. Se toma en consideración el número de socio (asumiendo que es único).
-     * Si la lista de calificaciones es nula, se crea una nueva sobredimensionada. La variable existeCalificacion siempre es falsa al comienzo,
-     * y sirve para detectar si ya existe una calificación del socio al libro en cuestión. En caso que el número de socio de la califiación
-     * coincida con el del socio que llega de afuera, se vuelve true, y por ende, se sobreescribe la calificación. Si no existe califiación
-     * luego del ciclo, entonces se añade la calificación (cantidad + 1), con la cantidad de estrellas y el número de socio correspondiente.
+     * Si no hay calificaciones, se crea la tabla de calificaciones (crece a medida que se agregan). Si ya existe una
+     * calificación del socio al libro en cuestión, se sobreescribe; si no, se añade la calificación (cantidad + 1),
+     * con la cantidad de estrellas y el número de socio correspondiente. Ambos casos son de tiempo constante.
      *
      * @param estrellas (cantidad de estrellas).
      * @param socio     (el socio que hace la calificación).
+     * @return las estrellas de la calificación anterior del socio, o -1 si no tenía (para deshacerCalificacion).
      */
-    public void sumarCalificacion(int estrellas, Socio socio) {
-        boolean existeCalificacion = false;
+    public int sumarCalificacion(int estrellas, Socio socio) {
+        return this.sumarCalificacion(estrellas, socio.getNumeroDeSocio());
+    }
 
-        int numeroDeSocio = socio.getNumeroDeSocio();
+    /**
+     * Método sumarCalificacion
+     * Calificación condicional: igual que la anterior, pero solo si el libro sigue en la versión esperada.
+     *
+     * @param estrellas       (cantidad de estrellas).
+     * @param socio           (el socio que hace la calificación).
+     * @param versionEsperada de las calificaciones (la que se leyó con getVersion).
+     * @return las estrellas de la calificación anterior del socio, o -1 si no tenía (para deshacerCalificacion).
+     * @throws ConflictoDeVersionException si el libro recibió otra calificación desde la versión esperada.
+     */
+    public int sumarCalificacion(int estrellas, Socio socio, int versionEsperada) {
+        if (this.version != versionEsperada) {
+            throw new ConflictoDeVersionException("El libro " + this.isbn, versionEsperada, this.version);
+        }
+        return this.sumarCalificacion(estrellas, socio.getNumeroDeSocio());
+    }
 
-        if (this.calificaciones == null) {
-            this.calificaciones = new Calificacion[100];
+    /**
+     * Método sumarCalificacion
+     * Igual que el anterior, pero usando directamente el número del socio que hace la calificación.
+     *
+     * @param estrellas     (cantidad de estrellas).
+     * @param numeroDeSocio (el número del socio que hace la calificación).
+     * @return las estrellas de la calificación anterior del socio, o -1 si no tenía (para deshacerCalificacion).
+     */
+    public int sumarCalificacion(int estrellas, int numeroDeSocio) {
+        if (!this.calificacionesCargadas) {
+            throw new IllegalStateException("Las calificaciones del libro " + this.isbn + " no están cargadas.");
         }
+        int anterior = this.guardarCalificacion(estrellas, numeroDeSocio);
+        this.version++;
+        return anterior;
+    }
 
-        while (!existeCalificacion) {
-            for (int i = 0; i < cantidadCalificaciones; i++) {
-                if ((calificaciones[i].getNumeroDeSocio()) == numeroDeSocio) {
-                    calificaciones[i].setEstrellas(estrellas);
-                    calificaciones[i].setNumeroDeSocio(numeroDeSocio);
-                    existeCalificacion = true;
-                    break;
-                }
+    /**
+     * Método deshacerCalificacion
+     * Deja la calificación del socio (y la suma y cantidad de votos) como estaba antes de sumarCalificacion, por
+     * ejemplo si no se pudo guardar. La versión aumenta otra vez (no vuelve atrás), ya que las calificaciones
+     * cambiaron de nuevo.
+     *
+     * @param numeroDeSocio (el número del socio que hizo la calificación).
+     * @param anterior      (lo que retornó sumarCalificacion: las estrellas anteriores, o -1 si no tenía).
+     */
+    public void deshacerCalificacion(int numeroDeSocio, int anterior) {
+        if (anterior >= 0) {
+            this.guardarCalificacion(anterior, numeroDeSocio);
+        } else {
+            int estrellas = this.calificaciones.quitar(numeroDeSocio);
+            if (estrellas >= 0) {
+                sumaEstrellas -= estrellas;
+                cantidadVotos--;
             }
+        }
+        this.version++;
+    }
 
-            if (!existeCalificacion) {
-                Calificacion calificacion = new Calificacion(estrellas, numeroDeSocio);
-                this.calificaciones[cantidadCalificaciones] = calificacion;
-                cantidadCalificaciones++;
-                existeCalificacion = true;
-                break;
-            }
+    /**
+     * Método guardarCalificacion
+     * Agrega o reemplaza la calificación del socio en la tabla, y ajusta la suma y cantidad de votos.
+     *
+     * @param estrellas     (cantidad de estrellas).
+     * @param numeroDeSocio (el número del socio que hace la calificación).
+     * @return las estrellas de la calificación anterior del socio, o -1 si no tenía.
+     */
+    private int guardarCalificacion(int estrellas, int numeroDeSocio) {
+        if (this.calificaciones == null) {
+            this.calificaciones = new Calificaciones(1);
         }
+
+        int anterior = this.calificaciones.guardar(numeroDeSocio, estrellas);
+        if (anterior >= 0) {
+            //Se reemplaza la calificación anterior en la suma.
+            sumaEstrellas += estrellas - anterior;
+        } else {
+            sumaEstrellas += estrellas;
+            cantidadVotos++;
+        }
+        return anterior;
+    }
+
+    /**
+     * @return la versión de las calificaciones del libro (aumenta con cada calificación).
+     */
+    public int getVersion() {
+        return this.version;
     }
 
     /**
      * Método getCalificación
-     * Se cuentan todas las estrellas entre todas las calificaciones no nulas, luego se cuentan todos
-     * los entre las calificaciones no nulas los socios que han hecho una opinión. Si la cantidad de opiniones
+     * Se usa la suma de estrellas y la cantidad de votos, que se mantienen al día con cada calificación
+     * (no se recorren las calificaciones, y no necesitan estar cargadas). Si la cantidad de opiniones
      * es mayor a 0, se retorna el promedio. O sino, se retorna 0 al no haber calificaciones.
      *
      * @return el promedio total entre todas las califiaciones, por parte de los usuarios.
      */
     public double getCalificacion() {
-        double sumaCalificacion = 0;
-        int cantidad = 0;
+        if (cantidadVotos > 0) {
+            return ((double) sumaEstrellas / cantidadVotos);
+        } else {
+            return 0;
+        }
+    }
 
-        for (int i = 0; i < calificaciones.length; i++) {
-            if (calificaciones[i] != null) {
-                sumaCalificacion += calificaciones[i].getEstrellas();
-            }
+    /**
+     * Método getSumaEstrellas
+     *
+     * @return la suma de las estrellas de todas las calificaciones.
+     */
+    public int getSumaEstrellas() {
+        return this.sumaEstrellas;
+    }
+
+    /**
+     * Método getCantidadVotos
+     *
+     * @return la cantidad de calificaciones del libro.
+     */
+    public int getCantidadVotos() {
+        return this.cantidadVotos;
+    }
+
+    /**
+     * Método restaurarTotales
+     * Asigna la suma de estrellas y la cantidad de votos guardados (por ejemplo, al cargar el libro
+     * sin sus calificaciones).
+     *
+     * @param sumaEstrellas de todas las calificaciones.
+     * @param cantidadVotos del libro.
+     */
+    public void restaurarTotales(int sumaEstrellas, int cantidadVotos) {
+        if (sumaEstrellas < 0 || cantidadVotos < 0) {
+            throw new IllegalArgumentException("Totales de calificaciones no válidos.");
         }
+        this.sumaEstrellas = sumaEstrellas;
+        this.cantidadVotos = cantidadVotos;
+    }
 
-        for (int i = 0; i < this.calificaciones.length; i++) {
-            if (calificaciones[i] != null && calificaciones[i].getNumeroDeSocio() != 0) {
-                cantidad++;
-            }
+    /**
+     * Método getCalificaciones
+     *
+     * @return una copia de las calificaciones hechas al libro.
+     */
+    public Calificacion[] getCalificaciones() {
+        if (this.calificaciones == null) {
+            return new Calificacion[0];
         }
+        return this.calificaciones.toArray();
+    }
 
-        if (cantidad > 0) {
-            return (sumaCalificacion / cantidad);
-        } else {
-            return 0;
+    /**
+     * Método calificacionesCargadas
+     *
+     * @return true si las calificaciones del libro están cargadas en memoria.
+     */
+    public boolean calificacionesCargadas() {
+        return this.calificacionesCargadas;
+    }
+
+    /**
+     * Método cargarCalificaciones
+     * Deja en memoria las calificaciones del libro (leidas desde donde se guardan).
+     *
+     * @param calificaciones del libro.
+     */
+    public void cargarCalificaciones(Calificacion[] calificaciones) {
+        this.calificaciones = new Calificaciones(calificaciones.length);
+        this.sumaEstrellas = 0;
+        this.cantidadVotos = 0;
+        this.calificacionesCargadas = true;
+        for (Calificacion calificacion : calificaciones) {
+            this.guardarCalificacion(calificacion.getEstrellas(), calificacion.getNumeroDeSocio());
         }
     }
 
+    /**
+     * Método descargarCalificaciones
+     * Libera de la memoria las calificaciones del libro (siguen guardadas, y se pueden volver a cargar).
+     * La suma de estrellas y la cantidad de votos se mantienen.
+     */
+    public void descargarCalificaciones() {
+        this.calificaciones = null;
+        this.calificacionesCargadas = false;
+    }
+
     /**
      * Método setPrestado
      *
@@ -199,4 +391,25 @@ public final class Libro {
     public boolean getPrestado() {
         return prestado;
     }
+
+    /**
+     * Método reservar
+     * Marca el libro como prestado solo si está desocupado, en una única operación atómica (compare-and-set):
+     * si varios hilos intentan prestar el mismo libro a la vez, solo uno lo consigue.
+     *
+     * @return true si el libro se reservó, false si ya estaba prestado.
+     */
+    public boolean reservar() {
+        return PRESTADO.compareAndSet(this, false, true);
+    }
+
+    /**
+     * Método liberar
+     * Marca el libro como desocupado solo si está prestado (operación atómica).
+     *
+     * @return true si el libro se liberó, false si no estaba prestado.
+     */
+    public boolean liberar() {
+        return PRESTADO.compareAndSet(this, true, false);
+    }
 }
\ No newline at end of file
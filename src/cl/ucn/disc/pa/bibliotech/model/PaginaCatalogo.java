@@ -0,0 +1,86 @@
+/*
+ * Copyright (c) 2023. Programacion Avanzada, DISC, UCN.
+ */
+
+package cl.ucn.disc.pa.bibliotech.model;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Una página del catálogo: los libros de la página y el cursor para pedir la siguiente.
+ * Es inmutable, por lo que la misma página se puede entregar varias veces (por ejemplo, desde un cache).
+ *
+ * @author Programacion Avanzada.
+ */
+public final class PaginaCatalogo {
+
+    /**
+     * Los libros de la página.
+     */
+    private final List<VistaLibro> libros;
+
+    /**
+     * Cursor de la siguiente página (null si esta es la última).
+     */
+    private final String siguiente;
+
+    /**
+     * Texto de la página, para desplegar (se arma la primera vez que se pide).
+     */
+    private String texto;
+
+    /**
+     * The Constructor.
+     *
+     * @param libros    de la página.
+     * @param siguiente cursor de la siguiente página (null si es la última).
+     */
+    public PaginaCatalogo(final List<VistaLibro> libros, final String siguiente) {
+        this.libros = Collections.unmodifiableList(libros);
+        this.siguiente = siguiente;
+    }
+
+    /**
+     * @return los libros de la página.
+     */
+    public List<VistaLibro> getLibros() {
+        return this.libros;
+    }
+
+    /**
+     * @return el cursor de la siguiente página, o null si esta es la última.
+     */
+    public String getSiguiente() {
+        return this.siguiente;
+    }
+
+    /**
+     * Método getTexto
+     * Obtiene el texto de la página para desplegar (Titulo, Autor, ISBN y Categoria de cada libro).
+     * Se arma solo la primera vez.
+     *
+     * @return el texto de la página.
+     */
+    public String getTexto() {
+        if (this.texto == null) {
+            StringBuilder sb = new StringBuilder();
+            for (VistaLibro libro : this.libros) {
+                sb.append("Titulo    : ").append(libro.getTitulo()).append("\n");
+                sb.append("Autor     : ").append(libro.getAutor()).append("\n");
+                sb.append("ISBN      : ").append(libro.getIsbn()).append("\n");
+                sb.append("Categoria : ").append(libro.getCategoria()).append("\n");
+                sb.append("\n");
+            }
+            this.texto = sb.toString();
+        }
+        return this.texto;
+    }
+
+    /**
+     * @return true si hay una página siguiente.
+     */
+    public boolean haySiguiente() {
+        return this.siguiente != null;
+    }
+}
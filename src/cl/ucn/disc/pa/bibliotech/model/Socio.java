@@ -6,8 +6,19 @@ package cl.ucn.disc.pa.bibliotech.model;
 
 import cl.ucn.disc.pa.bibliotech.services.Utils;
 
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.function.Function;
+
 /**
  * Clase que representa a un Socio.
+ * Los préstamos del socio se modifican y leen con el candado del propio socio (métodos synchronized), de modo que
+ * operaciones concurrentes de un mismo socio no se pisan y la cantidad maxima de libros se respeta, sin bloquear
+ * a los demás socios.
+ * <p>
+ * Los datos del perfil (nombre, apellido, correo y contraseña) tienen un numero de versión, que aumenta con cada
+ * cambio. Un cambio condicional indica la versión que leyó, y falla de inmediato (ConflictoDeVersionException) si
+ * otra sesión cambió el perfil entre medio, en vez de esperar un candado o sobreescribir ese cambio.
  *
  * @author Programacion Avanzada.
  */
@@ -18,20 +29,33 @@ public final class Socio {
      */
     private static final int NUMERO_LIBROS_MAXIMO = 10;
 
+    /**
+     * Acceso atómico (compare-and-set) al estado de la versión del perfil.
+     */
+    private static final VarHandle ESTADO_VERSION;
+
+    static {
+        try {
+            ESTADO_VERSION = MethodHandles.lookup().findVarHandle(Socio.class, "estadoVersion", int.class);
+        } catch (ReflectiveOperationException ex) {
+            throw new ExceptionInInitializerError(ex);
+        }
+    }
+
     /**
      * Nombre del socio.
      */
-    private String nombre;
+    private volatile String nombre;
 
     /**
      * Apellido del socio.
      */
-    private String apellido;
+    private volatile String apellido;
 
     /**
      * Email del socio.
      */
-    private String correoElectronico;
+    private volatile String correoElectronico;
 
     /**
      * Numero del socio.
@@ -41,17 +65,35 @@ public final class Socio {
     /**
      * Contrasenia del socio.
      */
-    private String contrasenia;
+    private volatile String contrasenia;
 
     /**
-     * Libros que el Socio tiene en prestamo (maximo 10).
+     * ISBN de los libros que el Socio tiene en prestamo (lo único que se guarda de los préstamos).
      */
-    private Libro[] librosEnPrestamo;
+    private volatile String[] prestamos;
+
+    /**
+     * Libros que el Socio tiene en prestamo (maximo 10). No se guarda: se enlaza con los libros del sistema al cargar.
+     */
+    private transient Libro[] librosEnPrestamo;
 
     /**
      * Cantidad actual de libros prestados.
      */
-    private int cantidadLibros = 0;
+    private transient int cantidadLibros = 0;
+
+    /**
+     * Identificador interno del socio: un numero correlativo (desde 0) que asigna el sistema al cargarlo, para
+     * usarlo como posición en arreglos e indices. No se guarda (el numero de socio es el que elige el socio).
+     */
+    private transient int id;
+
+    /**
+     * El doble de la versión del perfil, más 1 mientras se aplica un cambio (un cambio reserva la versión con
+     * compare-and-set, de par a impar, y al terminar la deja en el siguiente par). No se guarda: la versión parte
+     * en 0 al cargar el socio.
+     */
+    private transient volatile int estadoVersion;
 
     /**
      * @param nombre            del socio
@@ -85,6 +127,8 @@ public final class Socio {
             throw new IllegalArgumentException("Contraseña no válida.");
         }
         this.contrasenia = contrasenia;
+        this.prestamos = new String[0];
+        this.librosEnPrestamo = new Libro[NUMERO_LIBROS_MAXIMO];
         this.cantidadLibros = 0;
     }
 
@@ -131,87 +175,252 @@ public final class Socio {
     }
 
     /**
-     * Método agregarLibro
-     * Agrega un libro en préstamo al Socio. Si ya existe un arreglo de préstamo, pero la cantidad de libros actuales es 0, se
-     * vuelve a crear un arreglo con máximo 10 libros. No se pueden agregar más libros si se alcanza la cantidad máxima. Se copian
-     * las características del libro de afuera, a uno local.
-     * <p>
-     * Si la cantidad de libros actuales es 0, se agrega directamente en la primera posición, se aumenta la cantidad de libros en 1,
-     * y el libro pasa a estar ocupado (prestado = true). Si la cantidad es mayor que 0, y en la posición actual no hay nada, se
-     * agrega en la última posición, también se aumenta en 1 la cantidad, y el libro pasa a estar ocupado.
+     * @return el identificador interno del Socio (asignado por el sistema).
+     */
+    public int getId() {
+        return this.id;
+    }
+
+    /**
+     * @return la versión actual del perfil del Socio (aumenta con cada cambio del perfil).
+     */
+    public int getVersion() {
+        return this.estadoVersion >>> 1;
+    }
+
+    /**
+     * Método asignarId
+     * Asigna el identificador interno del socio (lo hace el sistema al agregarlo).
      *
-     * @param libro a agregar.
+     * @param id correlativo del socio (0 o más).
      */
-    public void agregarLibro(final Libro libro) {
-        if (this.librosEnPrestamo != null && cantidadLibros == 0) {
-            this.librosEnPrestamo = new Libro[NUMERO_LIBROS_MAXIMO];
+    public void asignarId(final int id) {
+        if (id < 0) {
+            throw new IllegalArgumentException("Identificador de socio no válido.");
         }
+        this.id = id;
+    }
 
+    /**
+     * Método agregarLibro
+     * Agrega un libro en préstamo al Socio, en la siguiente posición libre. No se pueden agregar más libros si se
+     * alcanza la cantidad máxima. Se aumenta la cantidad de libros en 1, se guarda el ISBN del libro y el libro pasa
+     * a estar ocupado (prestado = true).
+     *
+     * @param libro a agregar.
+     */
+    public synchronized void agregarLibro(final Libro libro) {
         //Validación
         if (cantidadLibros == NUMERO_LIBROS_MAXIMO) {
             throw new IllegalArgumentException("El Socio ya tiene la maxima cantidad de libros en prestamo: " + NUMERO_LIBROS_MAXIMO);
         }
 
+        librosEnPrestamo[cantidadLibros] = libro;
+        cantidadLibros++;
+        libro.setPrestado(true);
+        this.actualizarPrestamos();
+    }
 
-        Libro libro1 = libro;
-
+    /**
+     * Método vincularPrestamos
+     * Enlaza los ISBN guardados con los libros del sistema (la misma instancia, no una copia), luego de cargar
+     * al socio. Los ISBN que ya no existen en el sistema se descartan.
+     *
+     * @param buscador que entrega el libro de un ISBN (o null si no existe).
+     */
+    public synchronized void vincularPrestamos(final Function<String, Libro> buscador) {
+        this.librosEnPrestamo = new Libro[NUMERO_LIBROS_MAXIMO];
+        this.cantidadLibros = 0;
 
-        while (true) {
-            if (cantidadLibros > 0 && librosEnPrestamo[cantidadLibros] == null) {
-                librosEnPrestamo[cantidadLibros] = libro1;
-                cantidadLibros++;
-                libro1.setPrestado(true);
-                break;
+        if (this.prestamos != null) {
+            for (String isbn : this.prestamos) {
+                Libro libro = buscador.apply(isbn);
+                if (libro != null && cantidadLibros < NUMERO_LIBROS_MAXIMO) {
+                    librosEnPrestamo[cantidadLibros] = libro;
+                    cantidadLibros++;
+                }
             }
+        }
+        this.actualizarPrestamos();
+    }
 
-            if (librosEnPrestamo[0] == null) {
-                librosEnPrestamo[0] = libro1;
-                cantidadLibros++;
-                libro1.setPrestado(true);
-                break;
-            }
+    /**
+     * Método actualizarPrestamos
+     * Deja en el arreglo de ISBN exactamente los libros en préstamo actuales (sin posiciones vacías).
+     */
+    private void actualizarPrestamos() {
+        String[] isbn = new String[cantidadLibros];
+        for (int i = 0; i < cantidadLibros; i++) {
+            isbn[i] = librosEnPrestamo[i].getIsbn();
         }
+        this.prestamos = isbn;
     }
 
     /**
      * Método cambioDeContraseña
-     * Designa la nueva contraseña al socio (setContraseña).
+     * Designa la nueva contraseña al socio (setContraseña), sobre la versión actual del perfil.
      *
      * @param contrasenia (nueva contraseña)
      */
     public void cambioDeContrasenia(String contrasenia) {
-        this.contrasenia = contrasenia;
+        this.cambiarPerfil(() -> this.contrasenia = contrasenia);
     }
 
     /**
      * Método cambioDeCorreo
-     * Designa el nuevo correo al socio (setCorreo).
+     * Designa el nuevo correo al socio (setCorreo), sobre la versión actual del perfil.
      *
      * @param correo (nuevo correo)
      */
     public void cambioDeCorreo(String correo) {
-        this.correoElectronico = correo;
+        this.cambiarPerfil(() -> this.correoElectronico = correo);
     }
 
     /**
      * Método cambioDeNombre
-     * Designa el nuevo nombre al socio (setNombre).
+     * Designa el nuevo nombre al socio (setNombre), sobre la versión actual del perfil.
      *
      * @param nombre (nuevo nombre)
      */
     public void cambioDeNombre(String nombre) {
-        this.nombre = nombre;
+        this.cambiarPerfil(() -> this.nombre = nombre);
     }
 
     /**
      * Método cambioDeApellido
-     * Designa el nuevo apellido al socio (setApellido).
+     * Designa el nuevo apellido al socio (setApellido), sobre la versión actual del perfil.
      *
      * @param apellido (nuevo apellido)
      */
 
     public void cambioDeApellido(String apellido) {
-        this.apellido = apellido;
+        this.cambiarPerfil(() -> this.apellido = apellido);
+    }
+
+    /**
+     * Método actualizarPerfil
+     * Cambio sin condición del perfil: aplica juntos los datos indicados (los null se mantienen) sobre la versión
+     * actual, como los cambios de un solo dato (cambioDeNombre, etc.). Los datos se validan antes de reservar la
+     * versión.
+     *
+     * @param nombre      nuevo (o null).
+     * @param apellido    nuevo (o null).
+     * @param correo      nuevo (o null).
+     * @param contrasenia nueva (o null).
+     * @return la nueva versión del perfil.
+     */
+    public int actualizarPerfil(final String nombre, final String apellido, final String correo,
+                                final String contrasenia) {
+        validarPerfil(nombre, apellido, correo, contrasenia);
+        return this.cambiarPerfil(() -> this.asignarPerfil(nombre, apellido, correo, contrasenia));
+    }
+
+    /**
+     * Método actualizarPerfil
+     * Cambio condicional del perfil: aplica juntos los datos indicados (los null se mantienen), solo si el perfil
+     * sigue en la versión esperada. Los datos se validan antes de reservar la versión.
+     *
+     * @param nombre          nuevo (o null).
+     * @param apellido        nuevo (o null).
+     * @param correo          nuevo (o null).
+     * @param contrasenia     nueva (o null).
+     * @param versionEsperada del perfil (la que se leyó con getVersion).
+     * @return la nueva versión del perfil.
+     * @throws ConflictoDeVersionException si el perfil cambió desde la versión esperada.
+     */
+    public int actualizarPerfil(final String nombre, final String apellido, final String correo,
+                                final String contrasenia, final int versionEsperada) {
+        validarPerfil(nombre, apellido, correo, contrasenia);
+        if (versionEsperada < 0) {
+            throw new IllegalArgumentException("Versión no válida: " + versionEsperada);
+        }
+
+        int estado = versionEsperada << 1;
+        if (!ESTADO_VERSION.compareAndSet(this, estado, estado + 1)) {
+            throw new ConflictoDeVersionException("El socio " + this.numeroDeSocio, versionEsperada, this.getVersion());
+        }
+        try {
+            this.asignarPerfil(nombre, apellido, correo, contrasenia);
+        } finally {
+            this.estadoVersion = estado + 2;
+        }
+        return versionEsperada + 1;
+    }
+
+    /**
+     * Método validarPerfil
+     * Valida los datos de un cambio del perfil (los null no se cambian). Un cambio sin ningún dato es un error: no
+     * debe aumentar la versión ni quedar registrado.
+     *
+     * @param nombre      nuevo (o null).
+     * @param apellido    nuevo (o null).
+     * @param correo      nuevo (o null).
+     * @param contrasenia nueva (o null).
+     */
+    private static void validarPerfil(final String nombre, final String apellido, final String correo,
+                                      final String contrasenia) {
+        if (nombre == null && apellido == null && correo == null && contrasenia == null) {
+            throw new IllegalArgumentException("No se indicó ningún dato del perfil a cambiar.");
+        }
+        if (nombre != null && nombre.length() == 0) {
+            throw new IllegalArgumentException("Nombre de socio no válido.");
+        }
+        if (apellido != null && apellido.length() == 0) {
+            throw new IllegalArgumentException("Apellido de socio no válido.");
+        }
+        if (correo != null) {
+            Utils.validarEmail(correo);
+        }
+        if (contrasenia != null && contrasenia.length() == 0) {
+            throw new IllegalArgumentException("Contraseña no válida.");
+        }
+    }
+
+    /**
+     * Método asignarPerfil
+     * Asigna los datos del perfil (los null se mantienen), con la versión ya reservada.
+     *
+     * @param nombre      nuevo (o null).
+     * @param apellido    nuevo (o null).
+     * @param correo      nuevo (o null).
+     * @param contrasenia nueva (o null).
+     */
+    private void asignarPerfil(final String nombre, final String apellido, final String correo,
+                               final String contrasenia) {
+        if (nombre != null) {
+            this.nombre = nombre;
+        }
+        if (apellido != null) {
+            this.apellido = apellido;
+        }
+        if (correo != null) {
+            this.correoElectronico = correo;
+        }
+        if (contrasenia != null) {
+            this.contrasenia = contrasenia;
+        }
+    }
+
+    /**
+     * Método cambiarPerfil
+     * Aplica un cambio sin condición sobre la versión actual: reserva la versión (si otro cambio la tiene
+     * reservada, espera activamente a que termine, lo que toma solo unas asignaciones) y la aumenta en 1.
+     *
+     * @param cambio a aplicar.
+     * @return la nueva versión del perfil.
+     */
+    private int cambiarPerfil(final Runnable cambio) {
+        int estado = this.estadoVersion;
+        while ((estado & 1) != 0 || !ESTADO_VERSION.compareAndSet(this, estado, estado + 1)) {
+            Thread.onSpinWait();
+            estado = this.estadoVersion;
+        }
+        try {
+            cambio.run();
+        } finally {
+            this.estadoVersion = estado + 2;
+        }
+        return (estado >>> 1) + 1;
     }
 
     /**
@@ -220,10 +429,38 @@ public final class Socio {
      * @return la cantidad de libros actuales.
      */
 
-    public int getCantidadLibros() {
+    public synchronized int getCantidadLibros() {
         return cantidadLibros;
     }
 
+    /**
+     * Método tieneLibro
+     *
+     * @param libro a revisar.
+     * @return true si el socio tiene ese libro (la misma instancia) en préstamo.
+     */
+    public synchronized boolean tieneLibro(final Libro libro) {
+        for (int i = 0; i < cantidadLibros; i++) {
+            if (librosEnPrestamo[i] == libro) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Método getLibrosEnPrestamo
+     *
+     * @return una copia de los libros en préstamo (sin posiciones vacías).
+     */
+    public synchronized Libro[] getLibrosEnPrestamo() {
+        Libro[] copia = new Libro[this.cantidadLibros];
+        for (int i = 0; i < this.cantidadLibros; i++) {
+            copia[i] = this.librosEnPrestamo[i];
+        }
+        return copia;
+    }
+
     /**
      * Método getCantidadMaximaLibros
      *
@@ -240,7 +477,7 @@ public final class Socio {
      *
      * @return String de todos los libros en préstamo por el socio.
      */
-    public String obtenerLibrosEnPrestamo() {
+    public synchronized String obtenerLibrosEnPrestamo() {
 
         StringBuilder sb = new StringBuilder();
         for (int i = 0; i < cantidadLibros; i++) {
@@ -258,21 +495,37 @@ public final class Socio {
 
     /**
      * Método devolverLibro
-     * Se devuelve el libro prestado por el socio. Se elimina del arreglo de libros en préstamo,
-     * y la cantidad de libros actuales se reduce en 1. El libro pasa a estar desocupado (prestado = false).
+     * Se devuelve el libro prestado por el socio. Se elimina del arreglo de libros en préstamo (comparando la
+     * instancia del libro), y la cantidad de libros actuales se reduce en 1. El libro pasa a estar desocupado (prestado = false).
+     * Si el socio no tiene el libro en préstamo, se despliega un error.
      *
      * @param libro que se va a devolver.
      */
-    public void devolverLibro(Libro libro) {
+    public synchronized void devolverLibro(Libro libro) {
+        this.quitarLibro(libro);
+        libro.liberar();
+    }
+
+    /**
+     * Método quitarLibro
+     * Elimina el libro del arreglo de libros en préstamo del socio (comparando la instancia del libro), sin
+     * desocuparlo: el libro sigue prestado (nadie más lo puede tomar) hasta que se libere, por ejemplo, una vez
+     * guardada la devolución. Si el socio no tiene el libro en préstamo, se despliega un error.
+     *
+     * @param libro que se quita.
+     */
+    public synchronized void quitarLibro(Libro libro) {
         for (int i = 0; i < cantidadLibros; i++) {
             if (libro == librosEnPrestamo[i] && libro != null) {
                 for (int j = i; j < cantidadLibros - 1; j++) {
                     librosEnPrestamo[j] = librosEnPrestamo[j + 1];
                 }
-                break;
+                this.cantidadLibros--;
+                librosEnPrestamo[cantidadLibros] = null;
+                this.actualizarPrestamos();
+                return;
             }
         }
-        this.cantidadLibros--;
-        libro.setPrestado(false);
+        throw new IllegalArgumentException("El Socio no tiene el libro en prestamo.");
     }
 }
\ No newline at end of file
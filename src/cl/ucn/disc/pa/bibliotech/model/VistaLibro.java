@@ -0,0 +1,97 @@
+/*
+ * Copyright (c) 2023. Programacion Avanzada, DISC, UCN.
+ */
+
+package cl.ucn.disc.pa.bibliotech.model;
+
+/**
+ * Vista liviana (de solo lectura) de un libro, con los datos que se muestran en el catálogo.
+ * Se copia al momento de armar la página, por lo que no cambia si despues cambia el libro.
+ *
+ * @author Programacion Avanzada.
+ */
+public final class VistaLibro {
+
+    /**
+     * The ISBN.
+     */
+    private final String isbn;
+
+    /**
+     * The Titulo.
+     */
+    private final String titulo;
+
+    /**
+     * The Autor.
+     */
+    private final String autor;
+
+    /**
+     * The Categoria.
+     */
+    private final String categoria;
+
+    /**
+     * Si el libro estaba prestado al armar la vista (o en la instantánea de la que se armó).
+     */
+    private final boolean prestado;
+
+    /**
+     * The Constructor.
+     *
+     * @param libro del que se toman los datos.
+     */
+    public VistaLibro(final Libro libro) {
+        this(libro, libro.getPrestado());
+    }
+
+    /**
+     * The Constructor.
+     *
+     * @param libro    del que se toman los datos.
+     * @param prestado si el libro estaba prestado (por ejemplo, en una instantánea del catálogo).
+     */
+    public VistaLibro(final Libro libro, final boolean prestado) {
+        this.isbn = libro.getIsbn();
+        this.titulo = libro.getTitulo();
+        this.autor = libro.getAutor();
+        this.categoria = libro.getCategoria();
+        this.prestado = prestado;
+    }
+
+    /**
+     * @return the ISBN.
+     */
+    public String getIsbn() {
+        return this.isbn;
+    }
+
+    /**
+     * @return the titulo.
+     */
+    public String getTitulo() {
+        return this.titulo;
+    }
+
+    /**
+     * @return the autor.
+     */
+    public String getAutor() {
+        return this.autor;
+    }
+
+    /**
+     * @return the categoria.
+     */
+    public String getCategoria() {
+        return this.categoria;
+    }
+
+    /**
+     * @return si el libro estaba prestado.
+     */
+    public boolean getPrestado() {
+        return this.prestado;
+    }
+}
@@ -0,0 +1,86 @@
+/*
+ * Copyright (c) 2023. Programacion Avanzada, DISC, UCN.
+ */
+
+package cl.ucn.disc.pa.bibliotech.services;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.AccessDeniedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Escritura de archivos "todo o nada": el contenido se escribe en un archivo temporal, se fuerza al disco (fsync)
+ * y luego se renombra atomicamente sobre el archivo final. Por último se fuerza al disco la carpeta, para que el
+ * renombre tampoco se pierda (antes de, por ejemplo, vaciar la bitacora). Ante una caída, el archivo final queda
+ * con el contenido anterior o con el nuevo, nunca a medias.
+ *
+ * @author Programacion Avanzada.
+ */
+final class ArchivoAtomico {
+
+    /**
+     * Constructor privado: nadie puede instanciar esta clase.
+     */
+    private ArchivoAtomico() {
+        // nothing here
+    }
+
+    /**
+     * Método escribir: reemplaza atomicamente el contenido del archivo.
+     *
+     * @param archivo   a reemplazar.
+     * @param escritura que escribe el contenido nuevo en el canal entregado.
+     * @throws IOException en caso de algun error (el archivo final no se modifica).
+     */
+    static void escribir(final String archivo, final Escritura escritura) throws IOException {
+        Path destino = Paths.get(archivo).toAbsolutePath();
+        Path temporal = destino.resolveSibling(destino.getFileName() + ".tmp");
+
+        try {
+            try (FileChannel channel = FileChannel.open(temporal, StandardOpenOption.CREATE,
+                    StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                escritura.escribir(channel);
+                channel.force(true);
+            }
+            Files.move(temporal, destino, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            Files.deleteIfExists(temporal);
+        }
+        forzarCarpeta(destino.getParent());
+    }
+
+    /**
+     * Método forzarCarpeta: fuerza al disco (fsync) la carpeta, con los renombres hechos en ella.
+     * En sistemas que no permiten abrir una carpeta (Windows) no se hace nada, ya que ahí no se puede forzar.
+     *
+     * @param carpeta a forzar.
+     * @throws IOException en caso de algun error.
+     */
+    private static void forzarCarpeta(final Path carpeta) throws IOException {
+        try (FileChannel channel = FileChannel.open(carpeta, StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (AccessDeniedException ex) {
+            // La carpeta no se puede abrir como archivo.
+        }
+    }
+
+    /**
+     * Escribe el contenido del archivo.
+     */
+    @FunctionalInterface
+    interface Escritura {
+
+        /**
+         * Escribe el contenido en el canal.
+         *
+         * @param channel del archivo temporal.
+         * @throws IOException en caso de algun error.
+         */
+        void escribir(FileChannel channel) throws IOException;
+    }
+}
@@ -0,0 +1,567 @@
+/*
+ * Copyright (c) 2023. Programacion Avanzada, DISC, UCN.
+ */
+
+package cl.ucn.disc.pa.bibliotech.services;
+
+import cl.ucn.disc.pa.bibliotech.model.Libro;
+import cl.ucn.disc.pa.bibliotech.model.Socio;
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.ZipException;
+
+/**
+ * Bitacora (journal) de solo-agregado de las operaciones del sistema.
+ * Cada operación se escribe como una línea JSON compacta al final del archivo, de modo que el costo
+ * de escritura es proporcional al cambio y no al tamaño de los datos. Al iniciar, las operaciones
+ * registradas se vuelven a aplicar sobre la última copia completa (libros.json y socios.json).
+ * <p>
+ * Los registros se convierten a JSON al agregarlos (así quedan con los datos de ese momento), se guardan en
+ * una lista de pendientes, y se escriben todos juntos (una sola apertura y
+ * escritura del archivo) en escribirPendientes. Los métodos son sincronizados, ya que la escritura puede
+ * ocurrir desde el hilo de escritura diferida, pero el candado solo se usa para tomar el lote de pendientes:
+ * la escritura y el fsync se hacen sin él, de modo que agregar registros no espera al disco. Mientras un lote se
+ * escribe, quienes necesitan sus registros escritos esperan, y al terminar se despiertan: el siguiente escribe de
+ * una vez todo lo que se acumuló mientras tanto (escritura agrupada).
+ * <p>
+ * Cada registro agregado recibe un numero correlativo, con el que se puede descartar mientras aún no se escribe
+ * (descartar): así, una operación cuya escritura falla y se deshace en memoria no queda en la bitacora para que la
+ * escriba la siguiente operación. Si una escritura falla, el archivo se trunca al largo que tenía antes de ella, y
+ * su lote vuelve al comienzo de los pendientes.
+ * <p>
+ * Opcionalmente la bitacora se comprime con GZIP: cada escritura de pendientes agrega un bloque GZIP completo al
+ * final del archivo. El formato se detecta al leer, y un archivo existente se sigue escribiendo en su formato
+ * hasta que se trunca.
+ *
+ * @author Programacion Avanzada.
+ */
+final class Bitacora {
+
+    /**
+     * Procesador de JSON (compacto, un registro por línea).
+     */
+    private static final Gson GSON = new Gson();
+
+    /**
+     * Archivo de la bitacora.
+     */
+    private final Path archivo;
+
+    /**
+     * Registros agregados (ya en JSON) que aún no se escriben en el archivo.
+     */
+    private final List<Pendiente> pendientes;
+
+    /**
+     * Numero del último registro agregado.
+     */
+    private long ultimoNumero;
+
+    /**
+     * El lote que se está escribiendo (null si no hay una escritura en curso).
+     */
+    private List<Pendiente> enEscritura;
+
+    /**
+     * Cantidad de registros (escritos o pendientes) desde el último truncado.
+     */
+    private int cantidadRegistros;
+
+    /**
+     * Si la bitacora se debe comprimir (se aplica a partir del siguiente truncado).
+     */
+    private boolean comprimir;
+
+    /**
+     * Si el archivo actual está comprimido (null si aún no se sabe).
+     */
+    private Boolean archivoComprimido;
+
+    /**
+     * The Constructor.
+     *
+     * @param archivo de la bitacora.
+     */
+    Bitacora(final String archivo) {
+        this.archivo = Paths.get(archivo);
+        this.pendientes = new ArrayList<>();
+        this.cantidadRegistros = 0;
+    }
+
+    /**
+     * Método setComprimir: indica si la bitacora se comprime con GZIP. Si el archivo ya tiene registros, se sigue
+     * escribiendo en su formato actual hasta el siguiente truncado.
+     *
+     * @param comprimir true para comprimir.
+     */
+    synchronized void setComprimir(final boolean comprimir) {
+        this.comprimir = comprimir;
+    }
+
+    /**
+     * Método agregar: agrega un registro a los pendientes de escribir.
+     *
+     * @param registro a agregar.
+     * @return el numero del registro (para descartarlo, ver descartar).
+     */
+    synchronized long agregar(final Registro registro) {
+        this.ultimoNumero++;
+        this.pendientes.add(new Pendiente(this.ultimoNumero, GSON.toJson(registro)));
+        this.cantidadRegistros++;
+        return this.ultimoNumero;
+    }
+
+    /**
+     * Método descartar: quita un registro de los pendientes, si aún no se escribe (por ejemplo, porque su escritura
+     * falló y la operación se deshizo en memoria).
+     *
+     * @param numero del registro (entregado por agregar).
+     */
+    synchronized void descartar(final long numero) {
+        if (this.pendientes.removeIf(pendiente -> pendiente.numero() == numero)) {
+            this.cantidadRegistros--;
+        }
+    }
+
+    /**
+     * Método escribirPendientes: escribe todos los registros agregados hasta ahora (ver escribirHasta).
+     *
+     * @throws IOException en caso de algun error.
+     */
+    void escribirPendientes() throws IOException {
+        long numero;
+        synchronized (this) {
+            numero = this.ultimoNumero;
+        }
+        this.escribirHasta(numero);
+    }
+
+    /**
+     * Método escribirHasta: retorna cuando los registros hasta el numero indicado ya están escritos en la bitacora
+     * y forzados al disco (FileChannel.force): una operación se confirma solo cuando su registro ya no se pierde
+     * ante una caída. Si hay una escritura en curso se espera a que termine, y si aún quedan registros pendientes,
+     * se escriben todos de una vez (sin el candado de la bitacora). Si la escritura falla, el archivo se trunca a
+     * su largo anterior (para no dejar registros a medias) y el lote vuelve a quedar pendiente.
+     *
+     * @param numero del último registro que debe quedar escrito.
+     * @throws IOException en caso de algun error.
+     */
+    void escribirHasta(final long numero) throws IOException {
+        List<Pendiente> lote;
+        boolean comprimido;
+        synchronized (this) {
+            while (true) {
+                boolean pendiente = !this.pendientes.isEmpty() && this.pendientes.get(0).numero() <= numero;
+                boolean enCurso = this.enEscritura != null && this.enEscritura.get(0).numero() <= numero;
+                if (!pendiente && !enCurso) {
+                    return;
+                }
+                if (this.enEscritura == null) {
+                    break;
+                }
+                this.esperar();
+            }
+
+            if (this.archivoComprimido == null) {
+                this.archivoComprimido = Files.exists(this.archivo) && Files.size(this.archivo) > 0
+                        ? Compresion.esGzip(this.archivo)
+                        : this.comprimir;
+            }
+            comprimido = this.archivoComprimido;
+            lote = new ArrayList<>(this.pendientes);
+            this.pendientes.clear();
+            this.enEscritura = lote;
+        }
+
+        IOException error = null;
+        try {
+            this.escribir(lote, comprimido);
+        } catch (IOException ex) {
+            error = ex;
+        } finally {
+            synchronized (this) {
+                this.enEscritura = null;
+                if (error != null) {
+                    this.pendientes.addAll(0, lote);
+                }
+                this.notifyAll();
+            }
+        }
+        if (error != null) {
+            throw error;
+        }
+    }
+
+    /**
+     * Método escribir: agrega el lote al final del archivo y lo fuerza al disco (sin el candado de la bitacora).
+     *
+     * @param lote       de registros a escribir.
+     * @param comprimido si se escribe como un bloque GZIP.
+     * @throws IOException en caso de algun error (el archivo se trunca a su largo anterior).
+     */
+    private void escribir(final List<Pendiente> lote, final boolean comprimido) throws IOException {
+        List<String> lineas = new ArrayList<>(lote.size());
+        for (Pendiente pendiente : lote) {
+            lineas.add(pendiente.linea());
+        }
+        try (FileChannel channel = FileChannel.open(this.archivo, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.APPEND)) {
+            long largo = channel.size();
+            try {
+                escribirLineas(channel, lineas, comprimido);
+                channel.force(false);
+            } catch (IOException ex) {
+                try {
+                    channel.truncate(largo);
+                } catch (IOException truncado) {
+                    ex.addSuppressed(truncado);
+                }
+                throw ex;
+            }
+        }
+    }
+
+    /**
+     * Método esperar: espera (con el candado de la bitacora) a que termine la escritura en curso.
+     *
+     * @throws InterruptedIOException si el hilo es interrumpido.
+     */
+    private void esperar() throws InterruptedIOException {
+        try {
+            this.wait();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Escritura de la bitacora interrumpida.");
+        }
+    }
+
+    /**
+     * Método escribirLineas: escribe los registros (uno por línea) en el canal, como un bloque GZIP si corresponde.
+     *
+     * @param channel    donde se escribe.
+     * @param lineas     a escribir.
+     * @param comprimido si se escribe un bloque GZIP.
+     * @throws IOException en caso de algun error.
+     */
+    private static void escribirLineas(final FileChannel channel, final List<String> lineas, final boolean comprimido)
+            throws IOException {
+        OutputStream salida = Channels.newOutputStream(channel);
+        GZIPOutputStream gzip = comprimido ? Compresion.comprimir(salida) : null;
+        Writer writer = new BufferedWriter(new OutputStreamWriter(gzip == null ? salida : gzip, StandardCharsets.UTF_8));
+        for (String linea : lineas) {
+            writer.write(linea);
+            writer.write('\n');
+        }
+        writer.flush();
+        if (gzip != null) {
+            // Se termina el bloque GZIP sin cerrar el canal (se fuerza al disco despues).
+            gzip.finish();
+        }
+    }
+
+    /**
+     * Método leer: obtiene todos los registros de la bitacora, en el orden en que fueron escritos.
+     * Si la última línea (o el último bloque comprimido) quedó incompleta (por ejemplo, por una caída a mitad de
+     * escritura), se descarta, y el archivo se reemplaza (de forma atómica) por los registros completos: así lo que
+     * se agregue despues no queda pegado a la línea incompleta, ni se pierde al volver a leer.
+     *
+     * @return la lista de registros (vacía si la bitacora no existe).
+     * @throws IOException en caso de algun error.
+     */
+    synchronized List<Registro> leer() throws IOException {
+        List<Registro> registros = new ArrayList<>();
+        if (!Files.exists(this.archivo)) {
+            return registros;
+        }
+        List<String> completas = new ArrayList<>();
+        boolean incompleta = false;
+
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(
+                Compresion.abrir(new BufferedInputStream(Files.newInputStream(this.archivo))), StandardCharsets.UTF_8))) {
+            String linea;
+            while ((linea = reader.readLine()) != null) {
+                if (linea.isBlank()) {
+                    continue;
+                }
+                try {
+                    registros.add(GSON.fromJson(linea, Registro.class));
+                    completas.add(linea);
+                } catch (JsonParseException ex) {
+                    // Registro incompleto: lo que sigue no es confiable.
+                    incompleta = true;
+                    break;
+                }
+            }
+        } catch (EOFException | ZipException ex) {
+            // Bloque comprimido incompleto: se conservan los registros leidos hasta ahí.
+            incompleta = true;
+        }
+
+        boolean comprimido = Files.size(this.archivo) > 0 && Compresion.esGzip(this.archivo);
+        if (!incompleta && !comprimido && Files.size(this.archivo) > 0) {
+            // Una línea completa sin su salto de línea también quedó a medio escribir.
+            incompleta = !terminaEnSaltoDeLinea(this.archivo);
+        }
+        if (incompleta) {
+            ArchivoAtomico.escribir(this.archivo.toString(), channel -> escribirLineas(channel, completas, comprimido));
+        }
+
+        this.archivoComprimido = Files.size(this.archivo) > 0 ? comprimido : null;
+        this.cantidadRegistros = registros.size();
+        return registros;
+    }
+
+    /**
+     * Método terminaEnSaltoDeLinea.
+     *
+     * @param archivo a revisar (no vacío).
+     * @return true si el último byte del archivo es un salto de línea.
+     * @throws IOException en caso de algun error.
+     */
+    private static boolean terminaEnSaltoDeLinea(final Path archivo) throws IOException {
+        try (FileChannel channel = FileChannel.open(archivo, StandardOpenOption.READ)) {
+            ByteBuffer ultimo = ByteBuffer.allocate(1);
+            channel.read(ultimo, channel.size() - 1);
+            return ultimo.get(0) == '\n';
+        }
+    }
+
+    /**
+     * Método truncar: vacía la bitacora, una vez que su contenido ya fue guardado en los archivos completos (espera
+     * a que termine la escritura en curso). Los registros aún pendientes se conservan, y se escriben en la bitacora
+     * nueva (volver a aplicarlos sobre archivos que ya los incluyen no cambia el resultado).
+     *
+     * @throws IOException en caso de algun error.
+     */
+    synchronized void truncar() throws IOException {
+        while (this.enEscritura != null) {
+            this.esperar();
+        }
+        Files.deleteIfExists(this.archivo);
+        this.archivoComprimido = null;
+        this.cantidadRegistros = this.pendientes.size();
+    }
+
+    /**
+     * @return la cantidad de registros (escritos o pendientes) desde el último truncado.
+     */
+    synchronized int getCantidadRegistros() {
+        return this.cantidadRegistros;
+    }
+
+    /**
+     * Un registro pendiente de escribir.
+     *
+     * @param numero del registro.
+     * @param linea  del registro (en JSON).
+     */
+    private record Pendiente(long numero, String linea) {
+    }
+
+    /**
+     * Tipos de operaciones que se registran.
+     */
+    enum Tipo {
+        NUEVO_LIBRO,
+        NUEVO_SOCIO,
+        PRESTAMO,
+        DEVOLUCION,
+        CALIFICACION,
+        PERFIL
+    }
+
+    /**
+     * Un registro (una operación) de la bitacora.
+     */
+    static final class Registro {
+
+        /**
+         * Tipo de operación.
+         */
+        private final Tipo tipo;
+
+        /**
+         * Numero del socio que realiza la operación.
+         */
+        private final int socio;
+
+        /**
+         * ISBN del libro (préstamo, devolución y calificación).
+         */
+        private final String isbn;
+
+        /**
+         * Cantidad de estrellas (calificación).
+         */
+        private final int estrellas;
+
+        /**
+         * Suma de estrellas del libro después de la calificación.
+         */
+        private final int sumaEstrellas;
+
+        /**
+         * Cantidad de votos del libro después de la calificación.
+         */
+        private final int cantidadVotos;
+
+        /**
+         * Datos del socio (socio nuevo y cambio de perfil).
+         */
+        private final Socio datosSocio;
+
+        /**
+         * Datos del libro (libro nuevo).
+         */
+        private final Libro datosLibro;
+
+        /**
+         * The Constructor.
+         *
+         * @param tipo       de operación.
+         * @param socio      que realiza la operación.
+         * @param isbn       del libro (puede ser null).
+         * @param estrellas  de la calificación.
+         * @param totales    suma de estrellas y cantidad de votos del libro (puede ser null).
+         * @param datosSocio del socio (puede ser null).
+         * @param datosLibro del libro (puede ser null).
+         */
+        private Registro(Tipo tipo, int socio, String isbn, int estrellas, int[] totales, Socio datosSocio,
+                         Libro datosLibro) {
+            this.tipo = tipo;
+            this.socio = socio;
+            this.isbn = isbn;
+            this.estrellas = estrellas;
+            this.sumaEstrellas = totales == null ? 0 : totales[0];
+            this.cantidadVotos = totales == null ? 0 : totales[1];
+            this.datosSocio = datosSocio;
+            this.datosLibro = datosLibro;
+        }
+
+        /**
+         * Crea un registro de operación sobre un libro (préstamo o devolución).
+         *
+         * @param tipo  de operación.
+         * @param socio que realiza la operación.
+         * @param isbn  del libro.
+         * @return el registro.
+         */
+        static Registro deLibro(Tipo tipo, int socio, String isbn) {
+            return new Registro(tipo, socio, isbn, 0, null, null, null);
+        }
+
+        /**
+         * Crea un registro de calificación.
+         *
+         * @param socio     que califica.
+         * @param isbn      del libro calificado.
+         * @param estrellas     de la calificación.
+         * @param sumaEstrellas del libro después de la calificación.
+         * @param cantidadVotos del libro después de la calificación.
+         * @return el registro.
+         */
+        static Registro deCalificacion(int socio, String isbn, int estrellas, int sumaEstrellas, int cantidadVotos) {
+            return new Registro(Tipo.CALIFICACION, socio, isbn, estrellas, new int[]{sumaEstrellas, cantidadVotos},
+                    null, null);
+        }
+
+        /**
+         * Crea un registro con todos los datos del socio (socio nuevo o cambio de perfil).
+         *
+         * @param tipo  de operación.
+         * @param socio con los datos.
+         * @return el registro.
+         */
+        static Registro deSocio(Tipo tipo, Socio socio) {
+            return new Registro(tipo, socio.getNumeroDeSocio(), null, 0, null, socio, null);
+        }
+
+        /**
+         * Crea un registro de libro nuevo.
+         *
+         * @param libro agregado.
+         * @return el registro.
+         */
+        static Registro deNuevoLibro(Libro libro) {
+            return new Registro(Tipo.NUEVO_LIBRO, 0, libro.getIsbn(), 0, null, null, libro);
+        }
+
+        /**
+         * @return el tipo de operación.
+         */
+        Tipo getTipo() {
+            return this.tipo;
+        }
+
+        /**
+         * @return el numero del socio.
+         */
+        int getSocio() {
+            return this.socio;
+        }
+
+        /**
+         * @return el ISBN del libro.
+         */
+        String getIsbn() {
+            return this.isbn;
+        }
+
+        /**
+         * @return la cantidad de estrellas.
+         */
+        int getEstrellas() {
+            return this.estrellas;
+        }
+
+        /**
+         * @return la suma de estrellas del libro después de la calificación.
+         */
+        int getSumaEstrellas() {
+            return this.sumaEstrellas;
+        }
+
+        /**
+         * @return la cantidad de votos del libro después de la calificación (0 en registros antiguos).
+         */
+        int getCantidadVotos() {
+            return this.cantidadVotos;
+        }
+
+        /**
+         * @return los datos del socio.
+         */
+        Socio getDatosSocio() {
+            return this.datosSocio;
+        }
+
+        /**
+         * @return los datos del libro.
+         */
+        Libro getDatosLibro() {
+            return this.datosLibro;
+        }
+    }
+}
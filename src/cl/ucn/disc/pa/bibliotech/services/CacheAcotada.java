@@ -0,0 +1,120 @@
+/*
+ * Copyright (c) 2023. Programacion Avanzada, DISC, UCN.
+ */
+
+package cl.ucn.disc.pa.bibliotech.services;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.BiPredicate;
+import java.util.function.ToLongFunction;
+
+/**
+ * Cache con memoria acotada: cada valor tiene un tamaño estimado (en bytes), y al superar el presupuesto se
+ * descartan los valores usados hace más tiempo (LRU). Los valores se invalidan explicitamente cuando cambian los
+ * datos de los que dependen. Se puede usar desde varios hilos (cada operación usa el candado del cache).
+ *
+ * @param <K> tipo de las llaves.
+ * @param <V> tipo de los valores.
+ * @author Programacion Avanzada.
+ */
+final class CacheAcotada<K, V> {
+
+    /**
+     * Los valores, del usado hace más tiempo al más reciente.
+     */
+    private final LinkedHashMap<K, V> valores;
+
+    /**
+     * Estimación del tamaño (en bytes) de un valor.
+     */
+    private final ToLongFunction<V> tamanio;
+
+    /**
+     * Presupuesto de memoria (en bytes).
+     */
+    private final long presupuesto;
+
+    /**
+     * Tamaño estimado de todos los valores guardados.
+     */
+    private long usado;
+
+    /**
+     * The Constructor.
+     *
+     * @param presupuesto de memoria (en bytes).
+     * @param tamanio     estimación del tamaño (en bytes) de un valor.
+     */
+    CacheAcotada(final long presupuesto, final ToLongFunction<V> tamanio) {
+        if (presupuesto <= 0) {
+            throw new IllegalArgumentException("El presupuesto debe ser mayor a 0.");
+        }
+        this.valores = new LinkedHashMap<>(16, 0.75f, true);
+        this.tamanio = tamanio;
+        this.presupuesto = presupuesto;
+    }
+
+    /**
+     * Método obtener.
+     *
+     * @param llave a buscar.
+     * @return el valor guardado (y lo marca como usado recién), o null si no está.
+     */
+    synchronized V obtener(final K llave) {
+        return this.valores.get(llave);
+    }
+
+    /**
+     * Método guardar: guarda el valor, y descarta los usados hace más tiempo si se supera el presupuesto.
+     * Un valor más grande que todo el presupuesto no se guarda.
+     *
+     * @param llave del valor.
+     * @param valor a guardar.
+     */
+    synchronized void guardar(final K llave, final V valor) {
+        long tamanioValor = this.tamanio.applyAsLong(valor);
+        this.invalidar(llave);
+        if (tamanioValor > this.presupuesto) {
+            return;
+        }
+
+        this.valores.put(llave, valor);
+        this.usado += tamanioValor;
+
+        Iterator<V> antiguos = this.valores.values().iterator();
+        while (this.usado > this.presupuesto) {
+            this.usado -= this.tamanio.applyAsLong(antiguos.next());
+            antiguos.remove();
+        }
+    }
+
+    /**
+     * Método invalidar: descarta el valor de la llave.
+     *
+     * @param llave a descartar.
+     */
+    synchronized void invalidar(final K llave) {
+        V anterior = this.valores.remove(llave);
+        if (anterior != null) {
+            this.usado -= this.tamanio.applyAsLong(anterior);
+        }
+    }
+
+    /**
+     * Método invalidarSi: descarta todos los valores que cumplen la condición.
+     *
+     * @param condicion sobre la llave y el valor.
+     */
+    synchronized void invalidarSi(final BiPredicate<K, V> condicion) {
+        Iterator<Map.Entry<K, V>> entradas = this.valores.entrySet().iterator();
+        while (entradas.hasNext()) {
+            Map.Entry<K, V> entrada = entradas.next();
+            if (condicion.test(entrada.getKey(), entrada.getValue())) {
+                this.usado -= this.tamanio.applyAsLong(entrada.getValue());
+                entradas.remove();
+            }
+        }
+    }
+}
@@ -0,0 +1,61 @@
+/*
+ * Copyright (c) 2023. Programacion Avanzada, DISC, UCN.
+ */
+
+package cl.ucn.disc.pa.bibliotech.services;
+
+import cl.ucn.disc.pa.bibliotech.model.Libro;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Libros que tienen sus calificaciones cargadas en memoria, ordenados del menos al más recientemente usado (LRU).
+ * Al superar la capacidad, el libro usado hace más tiempo libera sus calificaciones (se vuelven a leer desde el
+ * repositorio si se necesitan), de modo que la memoria usada por las calificaciones queda acotada.
+ * <p>
+ * Se puede usar desde varios hilos: el libro que se descarta se toma con su propio candado, el mismo que se usa
+ * al cargar y cambiar sus calificaciones (por eso no se debe llamar a usar con el candado de un libro tomado).
+ *
+ * @author Programacion Avanzada.
+ */
+final class CacheCalificaciones {
+
+    /**
+     * Los libros con calificaciones cargadas (en orden de acceso).
+     */
+    private final Map<Libro, Boolean> libros;
+
+    /**
+     * The Constructor.
+     *
+     * @param capacidad maxima de libros con calificaciones cargadas.
+     */
+    CacheCalificaciones(final int capacidad) {
+        if (capacidad <= 0) {
+            throw new IllegalArgumentException("La capacidad debe ser mayor a 0.");
+        }
+        this.libros = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(final Map.Entry<Libro, Boolean> eldest) {
+                if (this.size() > capacidad) {
+                    Libro libro = eldest.getKey();
+                    synchronized (libro) {
+                        libro.descargarCalificaciones();
+                    }
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * Método usar: registra que el libro (con sus calificaciones ya cargadas) fue usado ahora.
+     *
+     * @param libro usado.
+     */
+    synchronized void usar(final Libro libro) {
+        this.libros.put(libro, Boolean.TRUE);
+    }
+}
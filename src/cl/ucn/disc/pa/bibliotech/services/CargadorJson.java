@@ -0,0 +1,136 @@
+/*
+ * Copyright (c) 2023. Programacion Avanzada, DISC, UCN.
+ */
+
+package cl.ucn.disc.pa.bibliotech.services;
+
+import com.google.gson.Gson;
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.function.Consumer;
+
+/**
+ * Carga un arreglo JSON registro por registro (streaming), sin construir el arbol completo en memoria.
+ * El archivo puede estar comprimido con GZIP (se detecta al leer).
+ *
+ * @author Programacion Avanzada.
+ */
+final class CargadorJson {
+
+    /**
+     * Tamaño del buffer de lectura.
+     */
+    private static final int TAMANIO_BUFFER = 64 * 1024;
+
+    /**
+     * Cada cuántos registros se informa el avance.
+     */
+    private static final int INTERVALO_PROGRESO = 10_000;
+
+    /**
+     * Constructor privado: nadie puede instanciar esta clase.
+     */
+    private CargadorJson() {
+        // nothing here
+    }
+
+    /**
+     * Método leer:
+     * Recorre el arreglo JSON del archivo y entrega cada elemento decodificado al destino, a medida que se lee.
+     * Los elementos null del arreglo se omiten.
+     *
+     * @param gson     procesador de JSON.
+     * @param archivo  a leer.
+     * @param tipo     de los elementos del arreglo.
+     * @param destino  que recibe cada elemento.
+     * @param progreso que recibe el avance de la carga.
+     * @param <T>      tipo de los elementos.
+     * @return la cantidad de elementos leidos.
+     * @throws IOException en caso de algun error (FileNotFoundException si el archivo no existe).
+     */
+    static <T> long leer(final Gson gson, final String archivo, final Class<T> tipo, final Consumer<T> destino,
+                         final ProgresoCarga progreso) throws IOException {
+
+        File file = new File(archivo);
+        long bytesTotales = file.length();
+        TypeAdapter<T> adapter = gson.getAdapter(tipo);
+
+        try (ContadorBytes contador = new ContadorBytes(new BufferedInputStream(new FileInputStream(file), TAMANIO_BUFFER));
+             JsonReader reader = new JsonReader(new InputStreamReader(Compresion.abrir(contador), StandardCharsets.UTF_8))) {
+
+            long registros = 0;
+            reader.beginArray();
+            while (reader.hasNext()) {
+                if (reader.peek() == JsonToken.NULL) {
+                    reader.nextNull();
+                    continue;
+                }
+                destino.accept(adapter.read(reader));
+                registros++;
+
+                if (registros % INTERVALO_PROGRESO == 0) {
+                    progreso.avance(archivo, registros, contador.getBytesLeidos(), bytesTotales);
+                }
+            }
+            reader.endArray();
+
+            progreso.avance(archivo, registros, bytesTotales, bytesTotales);
+            return registros;
+        }
+    }
+
+    /**
+     * Flujo que cuenta los bytes leidos (del archivo, comprimidos o no), para informar el avance.
+     */
+    private static final class ContadorBytes extends FilterInputStream {
+
+        /**
+         * Bytes leidos hasta el momento.
+         */
+        private long bytesLeidos;
+
+        /**
+         * The Constructor.
+         *
+         * @param in flujo a contar.
+         */
+        ContadorBytes(final InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b >= 0) {
+                this.bytesLeidos++;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = super.read(b, off, len);
+            if (n > 0) {
+                this.bytesLeidos += n;
+            }
+            return n;
+        }
+
+        /**
+         * @return los bytes leidos hasta el momento.
+         */
+        long getBytesLeidos() {
+            return this.bytesLeidos;
+        }
+    }
+}
@@ -0,0 +1,391 @@
+/*
+ * Copyright (c) 2023. Programacion Avanzada, DISC, UCN.
+ */
+
+package cl.ucn.disc.pa.bibliotech.services;
+
+import cl.ucn.disc.pa.bibliotech.model.FacetaCategoria;
+import cl.ucn.disc.pa.bibliotech.model.Libro;
+import cl.ucn.disc.pa.bibliotech.model.PaginaCatalogo;
+import cl.ucn.disc.pa.bibliotech.model.VistaLibro;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * El catálogo de libros del sistema, con un indice (tabla hash) por ISBN.
+ * Los libros se recorren en el orden en que se agregaron, y la búsqueda por ISBN es de tiempo constante.
+ * Además mantiene un indice de texto sobre el titulo y el autor, que se actualiza con cada libro agregado.
+ * <p>
+ * Cada libro recibe un identificador interno correlativo al agregarlo (su posición en el catálogo, ver
+ * Libro.getId), y el catálogo mantiene el diccionario ISBN -> identificador.
+ * <p>
+ * Los libros y su disponibilidad se leen desde una instantánea inmutable (InstantaneaCatalogo), publicada en una
+ * referencia atómica: las lecturas (buscar, recorrer, armar páginas) toman la instantánea actual y no usan
+ * candados ni ven cambios a medio hacer. Cada préstamo, devolución o libro nuevo crea una instantánea nueva que
+ * comparte casi todo con la anterior, y la publica con compare-and-set (si otro hilo publicó antes, se vuelve a
+ * aplicar el cambio sobre la más reciente). Agregar libros además usa el candado del catálogo (ocurre al cargar el
+ * sistema).
+ * <p>
+ * Por cada categoría se mantienen los ISBN de sus libros y contadores del total y de los disponibles, que se
+ * actualizan con cada libro agregado, préstamo y devolución (sin recorrer el catálogo).
+ * <p>
+ * El catálogo se puede recorrer por páginas: cada página entrega un cursor (opaco para quien lo usa) con el
+ * identificador interno desde donde sigue la siguiente, de modo que armar una página solo recorre sus libros.
+ * Las páginas armadas se guardan en un cache de memoria acotada, y se descartan solo las páginas que contienen
+ * (o podrían contener) un libro que cambió: su préstamo o devolución, o un libro nuevo al final del catálogo.
+ *
+ * @author Programacion Avanzada.
+ */
+final class Catalogo implements Iterable<Libro> {
+
+    /**
+     * Presupuesto de memoria (en bytes) del cache de páginas.
+     */
+    private static final long PRESUPUESTO_PAGINAS = 4L * 1024 * 1024;
+
+    /**
+     * La instantánea actual de los libros (en el orden en que se agregaron) y su disponibilidad.
+     */
+    private final AtomicReference<InstantaneaCatalogo> instantanea;
+
+    /**
+     * El identificador interno de cada libro, por ISBN.
+     */
+    private final Map<String, Integer> porIsbn;
+
+    /**
+     * Indice de texto sobre el titulo y el autor.
+     */
+    private final IndiceTexto indiceTexto;
+
+    /**
+     * Las categorías, ordenadas por nombre.
+     */
+    private final Map<String, Categoria> categorias;
+
+    /**
+     * Las páginas ya armadas.
+     */
+    private final CacheAcotada<ClavePagina, PaginaEnCache> paginas;
+
+    /**
+     * Cantidad de invalidaciones de páginas (con el candado del cache): una página armada mientras hubo una
+     * invalidación puede estar desactualizada, y no se guarda.
+     */
+    private long invalidaciones;
+
+    /**
+     * The Constructor.
+     *
+     * @param libros iniciales (si un ISBN se repite, se mantiene el primero).
+     */
+    Catalogo(final Libro[] libros) {
+        this.instantanea = new AtomicReference<>(InstantaneaCatalogo.VACIA);
+        this.porIsbn = new ConcurrentHashMap<>(Math.max(16, libros.length * 2));
+        this.indiceTexto = new IndiceTexto(this::buscar);
+        this.categorias = new TreeMap<>();
+        this.paginas = new CacheAcotada<>(PRESUPUESTO_PAGINAS, p -> 2L * p.pagina().getTexto().length());
+        for (Libro libro : libros) {
+            if (!this.porIsbn.containsKey(libro.getIsbn())) {
+                this.agregar(libro);
+            }
+        }
+    }
+
+    /**
+     * Método agregar: agrega un libro al catálogo, y le asigna su identificador interno.
+     * El libro se publica primero como prestado, y luego se refleja su disponibilidad real (como un préstamo o
+     * devolución cualquiera).
+     *
+     * @param libro a agregar.
+     */
+    synchronized void agregar(final Libro libro) {
+        int id = this.instantanea.get().cantidad();
+        if (this.porIsbn.putIfAbsent(libro.getIsbn(), id) != null) {
+            throw new IllegalArgumentException("El libro con isbn " + libro.getIsbn() + " ya existe.");
+        }
+        libro.asignarId(id);
+        // Solo se agregan libros con el candado, así que los demás cambios concurrentes no cambian la cantidad.
+        this.instantanea.updateAndGet(actual -> actual.conLibro(libro, false));
+        this.indiceTexto.agregar(libro);
+        Categoria categoria = this.categorias.computeIfAbsent(libro.getCategoria(), k -> new Categoria());
+        categoria.isbns.add(libro.getIsbn());
+        categoria.total++;
+        this.invalidarPaginas(id);
+        this.actualizarDisponibilidad(libro);
+    }
+
+    /**
+     * Método buscar.
+     *
+     * @param isbn a buscar.
+     * @return el libro o null si no fue encontrado.
+     */
+    Libro buscar(final String isbn) {
+        Integer id = this.porIsbn.get(isbn);
+        return id == null ? null : this.instantanea.get().libro(id);
+    }
+
+    /**
+     * Método buscar.
+     *
+     * @param id interno del libro.
+     * @return el libro o null si no hay un libro con ese identificador.
+     */
+    Libro buscar(final int id) {
+        return this.instantanea.get().libro(id);
+    }
+
+    /**
+     * Método vista.
+     *
+     * @param isbn a buscar.
+     * @return los datos del libro en la instantánea actual (inmutables), o null si no fue encontrado.
+     */
+    VistaLibro vista(final String isbn) {
+        Integer id = this.porIsbn.get(isbn);
+        return id == null ? null : this.instantanea.get().vista(id);
+    }
+
+    /**
+     * @return la instantánea actual del catálogo (inmutable).
+     */
+    InstantaneaCatalogo instantanea() {
+        return this.instantanea.get();
+    }
+
+    /**
+     * Método actualizarDisponibilidad: refleja en el catálogo si el libro está prestado o no.
+     * Se debe llamar cada vez que cambia el estado de préstamo de un libro del catálogo (desde cualquier hilo).
+     * Se publica una instantánea nueva con el estado del libro; solo el hilo que la publica ajusta los contadores de
+     * la categoría. Si el estado cambia de nuevo mientras se refleja (otro hilo lo prestó o devolvió), se vuelve a
+     * reflejar, de modo que el último en llamar deja el catálogo con el estado final del libro.
+     *
+     * @param libro que cambió.
+     */
+    void actualizarDisponibilidad(final Libro libro) {
+        int id = libro.getId();
+        if (this.buscar(id) != libro) {
+            throw new IllegalArgumentException("El libro con isbn " + libro.getIsbn() + " no es del catálogo.");
+        }
+        boolean disponible;
+        do {
+            disponible = !libro.getPrestado();
+            InstantaneaCatalogo actual;
+            InstantaneaCatalogo nueva;
+            do {
+                actual = this.instantanea.get();
+                nueva = actual.conDisponibilidad(id, disponible);
+            } while (nueva != actual && !this.instantanea.compareAndSet(actual, nueva));
+
+            if (nueva != actual) {
+                this.categorias.get(libro.getCategoria()).disponibles.addAndGet(disponible ? 1 : -1);
+                this.invalidarPaginas(id);
+            }
+        } while (disponible == libro.getPrestado());
+    }
+
+    /**
+     * Método invalidarPaginas: descarta del cache las páginas cuyo rango de identificadores incluye al libro.
+     * Una página solo depende de los libros desde su inicio hasta el inicio de la siguiente.
+     *
+     * @param id del libro que cambió.
+     */
+    private void invalidarPaginas(final int id) {
+        synchronized (this.paginas) {
+            this.invalidaciones++;
+            this.paginas.invalidarSi((clave, valor) -> clave.desde() <= id && id < valor.fin());
+        }
+    }
+
+    /**
+     * Método buscarTexto: busca por palabras del titulo y el autor (ver IndiceTexto).
+     *
+     * @param consulta con una o más palabras (o el comienzo de ellas).
+     * @param maximo   de resultados.
+     * @return los ISBN de los libros que contienen todas las palabras, del más al menos relevante.
+     */
+    List<String> buscarTexto(final String consulta, final int maximo) {
+        return this.indiceTexto.buscar(consulta, maximo);
+    }
+
+    /**
+     * @return la cantidad de libros del catálogo.
+     */
+    int cantidad() {
+        return this.instantanea.get().cantidad();
+    }
+
+    /**
+     * Método categorias.
+     *
+     * @return el resumen (total y disponibles) de cada categoría, ordenadas por nombre.
+     */
+    List<FacetaCategoria> categorias() {
+        List<FacetaCategoria> facetas = new ArrayList<>(this.categorias.size());
+        for (Map.Entry<String, Categoria> entry : this.categorias.entrySet()) {
+            Categoria categoria = entry.getValue();
+            facetas.add(new FacetaCategoria(entry.getKey(), categoria.total, categoria.disponibles.get()));
+        }
+        return facetas;
+    }
+
+    /**
+     * Método librosDeCategoria.
+     *
+     * @param categoria a buscar.
+     * @return los ISBN de los libros de la categoría, en el orden del catálogo (vacío si no existe).
+     */
+    List<String> librosDeCategoria(final String categoria) {
+        Categoria encontrada = this.categorias.get(categoria);
+        return encontrada == null ? Collections.emptyList() : Collections.unmodifiableList(encontrada.isbns);
+    }
+
+    /**
+     * Método pagina: arma una página del catálogo, en el orden del catálogo, desde la instantánea actual (todos
+     * los libros de la página con el estado de un mismo momento).
+     *
+     * @param filtro  de los libros a incluir.
+     * @param cursor  entregado por la página anterior (null para la primera página).
+     * @param tamanio maximo de la página.
+     * @return la página, con el cursor de la siguiente (null si no hay más libros).
+     */
+    PaginaCatalogo pagina(final FiltroCatalogo filtro, final String cursor, final int tamanio) {
+        if (tamanio <= 0) {
+            throw new IllegalArgumentException("El tamaño de la página debe ser mayor a 0.");
+        }
+
+        ClavePagina clave = new ClavePagina(filtro, decodificarCursor(cursor), tamanio);
+        long invalidacionesAntes;
+        synchronized (this.paginas) {
+            PaginaEnCache enCache = this.paginas.obtener(clave);
+            if (enCache != null) {
+                return enCache.pagina();
+            }
+            invalidacionesAntes = this.invalidaciones;
+        }
+
+        InstantaneaCatalogo actual = this.instantanea.get();
+        List<VistaLibro> vistas = new ArrayList<>(Math.min(tamanio, actual.cantidad()));
+        int id = siguiente(actual, filtro, clave.desde());
+        while (id >= 0 && vistas.size() < tamanio) {
+            vistas.add(actual.vista(id));
+            id = siguiente(actual, filtro, id + 1);
+        }
+        PaginaCatalogo pagina = new PaginaCatalogo(vistas, id >= 0 ? codificarCursor(id) : null);
+        synchronized (this.paginas) {
+            if (this.invalidaciones == invalidacionesAntes) {
+                this.paginas.guardar(clave, new PaginaEnCache(pagina, id >= 0 ? id : Integer.MAX_VALUE));
+            }
+        }
+        return pagina;
+    }
+
+    /**
+     * Método siguiente.
+     *
+     * @param instantanea del catálogo.
+     * @param filtro      de los libros a incluir.
+     * @param desde       identificador interno (incluido).
+     * @return el identificador del primer libro desde la posición que cumple el filtro (-1 si no hay).
+     */
+    private static int siguiente(final InstantaneaCatalogo instantanea, final FiltroCatalogo filtro,
+                                 final int desde) {
+        if (filtro == FiltroCatalogo.DISPONIBLES) {
+            return instantanea.siguienteDisponible(desde);
+        }
+        return desde < instantanea.cantidad() ? desde : -1;
+    }
+
+    /**
+     * Método codificarCursor.
+     *
+     * @param id del libro con que empieza la página.
+     * @return el cursor (texto opaco).
+     */
+    private static String codificarCursor(final int id) {
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(("c" + id).getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Método decodificarCursor.
+     *
+     * @param cursor a decodificar (null para la primera página).
+     * @return el identificador del libro con que empieza la página.
+     */
+    private static int decodificarCursor(final String cursor) {
+        if (cursor == null) {
+            return 0;
+        }
+        try {
+            String texto = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+            if (texto.startsWith("c")) {
+                int id = Integer.parseInt(texto.substring(1));
+                if (id >= 0) {
+                    return id;
+                }
+            }
+        } catch (IllegalArgumentException ex) {
+            // NumberFormatException también es IllegalArgumentException.
+        }
+        throw new IllegalArgumentException("Cursor no válido: " + cursor);
+    }
+
+    /**
+     * @return los libros de la instantánea actual, en el orden en que se agregaron.
+     */
+    @Override
+    public Iterator<Libro> iterator() {
+        return this.instantanea.get().libros().iterator();
+    }
+
+    /**
+     * Llave de una página en el cache.
+     *
+     * @param filtro  de los libros de la página.
+     * @param desde   identificador interno desde donde empieza la página.
+     * @param tamanio maximo de la página.
+     */
+    private record ClavePagina(FiltroCatalogo filtro, int desde, int tamanio) {
+    }
+
+    /**
+     * Una página en el cache.
+     *
+     * @param pagina armada.
+     * @param fin    identificador interno con que empieza la siguiente página (Integer.MAX_VALUE si es la última).
+     */
+    private record PaginaEnCache(PaginaCatalogo pagina, int fin) {
+    }
+
+    /**
+     * Los libros de una categoría y sus contadores.
+     */
+    private static final class Categoria {
+
+        /**
+         * ISBN de los libros de la categoría.
+         */
+        private final List<String> isbns = new ArrayList<>();
+
+        /**
+         * Cantidad de libros de la categoría.
+         */
+        private int total;
+
+        /**
+         * Cantidad de libros disponibles de la categoría.
+         */
+        private final AtomicInteger disponibles = new AtomicInteger();
+    }
+}
@@ -0,0 +1,111 @@
+/*
+ * Copyright (c) 2023. Programacion Avanzada, DISC, UCN.
+ */
+
+package cl.ucn.disc.pa.bibliotech.services;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PushbackInputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Compresión GZIP (java.util.zip) de los archivos guardados. Al leer, el formato se detecta por los primeros bytes
+ * del archivo (la marca de GZIP), de modo que un archivo comprimido y uno sin comprimir se leen igual.
+ *
+ * @author Programacion Avanzada.
+ */
+final class Compresion {
+
+    /**
+     * Primer byte de la marca de GZIP.
+     */
+    private static final int GZIP_1 = 0x1F;
+
+    /**
+     * Segundo byte de la marca de GZIP.
+     */
+    private static final int GZIP_2 = 0x8B;
+
+    /**
+     * Tamaño del buffer de compresión.
+     */
+    private static final int TAMANIO_BUFFER = 64 * 1024;
+
+    /**
+     * Constructor privado: nadie puede instanciar esta clase.
+     */
+    private Compresion() {
+        // nothing here
+    }
+
+    /**
+     * Método esGzip.
+     *
+     * @param primero primer byte del archivo.
+     * @param segundo segundo byte del archivo.
+     * @return true si los bytes son la marca de GZIP.
+     */
+    static boolean esGzip(final int primero, final int segundo) {
+        return (primero & 0xFF) == GZIP_1 && (segundo & 0xFF) == GZIP_2;
+    }
+
+    /**
+     * Método esGzip.
+     *
+     * @param archivo a revisar.
+     * @return true si el archivo existe y está comprimido con GZIP.
+     * @throws IOException en caso de algun error.
+     */
+    static boolean esGzip(final Path archivo) throws IOException {
+        if (!Files.exists(archivo)) {
+            return false;
+        }
+        try (InputStream in = Files.newInputStream(archivo)) {
+            return esGzip(in.read(), in.read());
+        }
+    }
+
+    /**
+     * Método abrir: entrega el contenido del flujo, descomprimiéndolo si está comprimido con GZIP.
+     * Un flujo con varios bloques GZIP seguidos se lee como uno solo.
+     *
+     * @param in flujo a leer.
+     * @return el flujo con el contenido sin comprimir.
+     * @throws IOException en caso de algun error.
+     */
+    static InputStream abrir(final InputStream in) throws IOException {
+        PushbackInputStream pushback = new PushbackInputStream(in, 2);
+        byte[] marca = new byte[2];
+        int leidos = 0;
+        while (leidos < marca.length) {
+            int n = pushback.read(marca, leidos, marca.length - leidos);
+            if (n < 0) {
+                break;
+            }
+            leidos += n;
+        }
+        pushback.unread(marca, 0, leidos);
+
+        if (leidos == marca.length && esGzip(marca[0], marca[1])) {
+            return new GZIPInputStream(pushback, TAMANIO_BUFFER);
+        }
+        return pushback;
+    }
+
+    /**
+     * Método comprimir: entrega un flujo que comprime (un bloque GZIP) lo escrito en el flujo de salida.
+     * Al cerrarlo se termina el bloque y se cierra el flujo de salida.
+     *
+     * @param out flujo de salida.
+     * @return el flujo que comprime.
+     * @throws IOException en caso de algun error.
+     */
+    static GZIPOutputStream comprimir(final OutputStream out) throws IOException {
+        return new GZIPOutputStream(out, TAMANIO_BUFFER);
+    }
+}
@@ -0,0 +1,38 @@
+/*
+ * Copyright (c) 2023. Programacion Avanzada, DISC, UCN.
+ */
+
+package cl.ucn.disc.pa.bibliotech.services;
+
+import cl.ucn.disc.pa.bibliotech.model.Libro;
+
+/**
+ * Criterio para repartir los libros del catálogo en fragmentos (archivos separados).
+ *
+ * @author Programacion Avanzada.
+ */
+public enum CriterioFragmento {
+
+    /**
+     * Todos los libros de una categoría quedan en el mismo fragmento.
+     */
+    CATEGORIA,
+
+    /**
+     * Los libros se reparten según el hash de su ISBN.
+     */
+    ISBN;
+
+    /**
+     * Método fragmento: obtiene el fragmento al que pertenece el libro. El hash de un String no cambia entre
+     * ejecuciones, por lo que un libro siempre queda en el mismo fragmento.
+     *
+     * @param libro              a ubicar.
+     * @param cantidadFragmentos en que se divide el catálogo.
+     * @return el número de fragmento (de 0 a cantidadFragmentos - 1).
+     */
+    public int fragmento(final Libro libro, final int cantidadFragmentos) {
+        String clave = this == CATEGORIA ? libro.getCategoria() : libro.getIsbn();
+        return Math.floorMod(clave.hashCode(), cantidadFragmentos);
+    }
+}
@@ -0,0 +1,51 @@
+/*
+ * Copyright (c) 2023. Programacion Avanzada, DISC, UCN.
+ */
+
+package cl.ucn.disc.pa.bibliotech.services;
+
+import cl.ucn.disc.pa.bibliotech.model.Libro;
+import cl.ucn.disc.pa.bibliotech.model.Socio;
+
+/**
+ * Los libros y socios cargados desde un repositorio.
+ *
+ * @author Programacion Avanzada.
+ */
+public final class Datos {
+
+    /**
+     * Los libros.
+     */
+    private final Libro[] libros;
+
+    /**
+     * Los socios (con sus préstamos ya enlazados a los libros).
+     */
+    private final Socio[] socios;
+
+    /**
+     * The Constructor.
+     *
+     * @param libros cargados.
+     * @param socios cargados.
+     */
+    public Datos(final Libro[] libros, final Socio[] socios) {
+        this.libros = libros;
+        this.socios = socios;
+    }
+
+    /**
+     * @return los libros.
+     */
+    public Libro[] getLibros() {
+        return this.libros;
+    }
+
+    /**
+     * @return los socios.
+     */
+    public Socio[] getSocios() {
+        return this.socios;
+    }
+}
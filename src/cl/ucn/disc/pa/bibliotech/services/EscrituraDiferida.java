@@ -0,0 +1,211 @@
+/*
+ * Copyright (c) 2023. Programacion Avanzada, DISC, UCN.
+ */
+
+package cl.ucn.disc.pa.bibliotech.services;
+
+import java.io.IOException;
+
+/**
+ * Escritura diferida (write-behind) con escritura agrupada (group commit).
+ * Las operaciones solo marcan que hay cambios pendientes; un hilo en segundo plano ejecuta una única escritura
+ * por todos ellos, cuando se junta la cantidad máxima del lote o cuando el cambio más antiguo alcanza la
+ * latencia máxima. Así, la ventana de cambios que se podrían perder ante una caída queda acotada por la latencia.
+ *
+ * @author Programacion Avanzada.
+ */
+final class EscrituraDiferida implements AutoCloseable {
+
+    /**
+     * Latencia máxima (en milisegundos) de un cambio antes de ser escrito.
+     */
+    private final long maxLatencia;
+
+    /**
+     * Cantidad de cambios que provoca la escritura inmediata.
+     */
+    private final int maxLote;
+
+    /**
+     * La escritura a realizar.
+     */
+    private final Escritura escritura;
+
+    /**
+     * Hilo que realiza las escrituras.
+     */
+    private final Thread hilo;
+
+    /**
+     * Evita que el hilo y una sincronización explicita escriban al mismo tiempo.
+     */
+    private final Object candado = new Object();
+
+    /**
+     * Cantidad de cambios pendientes de escribir.
+     */
+    private int pendientes;
+
+    /**
+     * Momento (System.nanoTime) en que se debe escribir el cambio pendiente más antiguo.
+     */
+    private long plazo;
+
+    /**
+     * Si se solicitó detener el hilo.
+     */
+    private boolean detenido;
+
+    /**
+     * Último error de escritura del hilo, que se informa en la siguiente operación.
+     */
+    private IOException error;
+
+    /**
+     * The Constructor: inicia el hilo de escritura.
+     *
+     * @param maxLatencia máxima (en milisegundos) antes de escribir un cambio.
+     * @param maxLote     cantidad de cambios que provoca la escritura inmediata.
+     * @param escritura   a realizar por cada lote.
+     */
+    EscrituraDiferida(final long maxLatencia, final int maxLote, final Escritura escritura) {
+        if (maxLatencia <= 0) {
+            throw new IllegalArgumentException("La latencia maxima debe ser mayor a 0.");
+        }
+        if (maxLote <= 0) {
+            throw new IllegalArgumentException("El lote maximo debe ser mayor a 0.");
+        }
+        this.maxLatencia = maxLatencia;
+        this.maxLote = maxLote;
+        this.escritura = escritura;
+
+        this.hilo = new Thread(this::ejecutar, "bibliotech-escritura-diferida");
+        this.hilo.setDaemon(true);
+        this.hilo.start();
+    }
+
+    /**
+     * Método marcar: informa que hay un nuevo cambio pendiente de escribir.
+     *
+     * @throws IOException si la escritura anterior del hilo falló.
+     */
+    synchronized void marcar() throws IOException {
+        this.informarError();
+
+        if (this.detenido) {
+            throw new IllegalStateException("La escritura diferida está cerrada.");
+        }
+
+        if (this.pendientes == 0) {
+            this.plazo = System.nanoTime() + this.maxLatencia * 1_000_000L;
+        }
+        this.pendientes++;
+        this.notifyAll();
+    }
+
+    /**
+     * Método sincronizar: escribe ahora todos los cambios pendientes, sin esperar al hilo.
+     *
+     * @throws IOException en caso de algun error.
+     */
+    void sincronizar() throws IOException {
+        synchronized (this) {
+            this.informarError();
+            this.pendientes = 0;
+        }
+        synchronized (this.candado) {
+            this.escritura.escribir();
+        }
+    }
+
+    /**
+     * Método close: detiene el hilo y escribe los cambios pendientes.
+     *
+     * @throws IOException en caso de algun error.
+     */
+    @Override
+    public void close() throws IOException {
+        synchronized (this) {
+            this.detenido = true;
+            this.notifyAll();
+        }
+        try {
+            this.hilo.join();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+        this.sincronizar();
+    }
+
+    /**
+     * Ciclo del hilo: espera cambios, los agrupa hasta el plazo o el lote máximo, y los escribe.
+     */
+    private void ejecutar() {
+        while (true) {
+            synchronized (this) {
+                try {
+                    while (!this.detenido && !this.loteListo()) {
+                        if (this.pendientes == 0) {
+                            this.wait();
+                        } else {
+                            long espera = (this.plazo - System.nanoTime()) / 1_000_000L;
+                            this.wait(Math.max(1, espera));
+                        }
+                    }
+                } catch (InterruptedException ex) {
+                    return;
+                }
+                if (this.detenido) {
+                    // close() escribe lo que quede.
+                    return;
+                }
+                this.pendientes = 0;
+            }
+
+            try {
+                synchronized (this.candado) {
+                    this.escritura.escribir();
+                }
+            } catch (IOException ex) {
+                synchronized (this) {
+                    this.error = ex;
+                }
+            }
+        }
+    }
+
+    /**
+     * @return true si se juntó el lote máximo o se cumplió el plazo del cambio más antiguo.
+     */
+    private boolean loteListo() {
+        return this.pendientes >= this.maxLote
+                || (this.pendientes > 0 && System.nanoTime() - this.plazo >= 0);
+    }
+
+    /**
+     * Lanza (una sola vez) el último error de escritura del hilo.
+     *
+     * @throws IOException el error.
+     */
+    private void informarError() throws IOException {
+        if (this.error != null) {
+            IOException ex = this.error;
+            this.error = null;
+            throw ex;
+        }
+    }
+
+    /**
+     * La escritura que se realiza por cada lote de cambios.
+     */
+    @FunctionalInterface
+    interface Escritura {
+
+        /**
+         * Escribe todos los cambios pendientes.
+         *
+         * @throws IOException en caso de algun error.
+         */
+        void escribir() throws IOException;
+    }
+}
@@ -0,0 +1,23 @@
+/*
+ * Copyright (c) 2023. Programacion Avanzada, DISC, UCN.
+ */
+
+package cl.ucn.disc.pa.bibliotech.services;
+
+/**
+ * Libros del catálogo que se incluyen en una consulta por páginas.
+ *
+ * @author Programacion Avanzada.
+ */
+public enum FiltroCatalogo {
+
+    /**
+     * Todos los libros del catálogo.
+     */
+    TODOS,
+
+    /**
+     * Solo los libros disponibles (no prestados).
+     */
+    DISPONIBLES
+}
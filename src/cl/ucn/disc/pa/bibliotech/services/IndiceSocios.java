@@ -0,0 +1,96 @@
+/*
+ * Copyright (c) 2023. Programacion Avanzada, DISC, UCN.
+ */
+
+package cl.ucn.disc.pa.bibliotech.services;
+
+import cl.ucn.disc.pa.bibliotech.model.Socio;
+import cl.ucn.disc.pa.bibliotech.util.TablaEnteros;
+
+import java.util.Arrays;
+
+/**
+ * Indice de los socios por numero de socio: una tabla hash de enteros (TablaEnteros) del numero de socio al
+ * identificador interno del socio, y un arreglo de los socios por identificador, sin crear un Integer ni un nodo
+ * por socio.
+ * <p>
+ * Los numeros de socio son únicos: agregar un numero repetido es un error. Cada socio agregado recibe un
+ * identificador interno correlativo (ver Socio.getId), que es su posición en el arreglo.
+ * Se puede usar desde varios hilos (cada operación usa el candado del indice).
+ *
+ * @author Programacion Avanzada.
+ */
+final class IndiceSocios {
+
+    /**
+     * Capacidad inicial del arreglo de socios.
+     */
+    private static final int CAPACIDAD_INICIAL = 16;
+
+    /**
+     * Numero de socio -> identificador interno.
+     */
+    private final TablaEnteros ids;
+
+    /**
+     * Los socios por identificador interno (en el orden en que se agregaron).
+     */
+    private Socio[] socios;
+
+    /**
+     * Cantidad de socios en el indice.
+     */
+    private int cantidad;
+
+    /**
+     * The Constructor.
+     *
+     * @param socios iniciales.
+     */
+    IndiceSocios(final Socio[] socios) {
+        this.ids = new TablaEnteros(socios.length);
+        this.socios = new Socio[Math.max(CAPACIDAD_INICIAL, socios.length)];
+        this.cantidad = 0;
+
+        for (Socio socio : socios) {
+            this.agregar(socio);
+        }
+    }
+
+    /**
+     * Método agregar: agrega un socio al indice, y le asigna su identificador interno.
+     *
+     * @param socio a agregar.
+     */
+    synchronized void agregar(final Socio socio) {
+        int numero = socio.getNumeroDeSocio();
+        if (this.ids.buscar(numero) >= 0) {
+            throw new IllegalArgumentException("El numero de socio " + numero + " ya existe.");
+        }
+        if (this.cantidad == this.socios.length) {
+            this.socios = Arrays.copyOf(this.socios, this.cantidad * 2);
+        }
+        socio.asignarId(this.cantidad);
+        this.socios[this.cantidad] = socio;
+        this.ids.guardar(numero, this.cantidad);
+        this.cantidad++;
+    }
+
+    /**
+     * Método buscar.
+     *
+     * @param numeroDeSocio a buscar.
+     * @return el socio o null si no fue encontrado.
+     */
+    synchronized Socio buscar(final int numeroDeSocio) {
+        int id = this.ids.buscar(numeroDeSocio);
+        return id < 0 ? null : this.socios[id];
+    }
+
+    /**
+     * @return la cantidad de socios en el indice.
+     */
+    synchronized int cantidad() {
+        return this.cantidad;
+    }
+}
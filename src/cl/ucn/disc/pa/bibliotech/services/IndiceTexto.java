@@ -0,0 +1,281 @@
+/*
+ * Copyright (c) 2023. Programacion Avanzada, DISC, UCN.
+ */
+
+package cl.ucn.disc.pa.bibliotech.services;
+
+import cl.ucn.disc.pa.bibliotech.model.Libro;
+
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.function.IntFunction;
+import java.util.regex.Pattern;
+
+/**
+ * Indice invertido (de texto completo) sobre el titulo y el autor de los libros.
+ * Cada palabra se normaliza (minúsculas y sin tildes: "Márquez" y "marquez" son la misma palabra) y apunta a la
+ * lista de libros que la contienen, por su identificador interno (Libro.getId). Las palabras se guardan ordenadas (TreeMap), de modo que una palabra de la
+ * consulta también encuentra todas las palabras que empiezan con ella (búsqueda por prefijo).
+ * <p>
+ * Una consulta de varias palabras entrega los libros que coinciden con todas ellas (AND), ordenados por relevancia:
+ * una palabra completa vale más que un prefijo, y una coincidencia en el titulo vale más que en el autor.
+ *
+ * @author Programacion Avanzada.
+ */
+final class IndiceTexto {
+
+    /**
+     * Puntaje de una coincidencia en el titulo.
+     */
+    private static final int PUNTAJE_TITULO = 2;
+
+    /**
+     * Puntaje de una coincidencia en el autor.
+     */
+    private static final int PUNTAJE_AUTOR = 1;
+
+    /**
+     * Multiplicador del puntaje cuando la palabra coincide completa (y no solo como prefijo).
+     */
+    private static final int FACTOR_PALABRA_COMPLETA = 2;
+
+    /**
+     * Marcas diacríticas (tildes, diéresis) que quedan separadas al descomponer el texto.
+     */
+    private static final Pattern DIACRITICOS = Pattern.compile("\\p{M}+");
+
+    /**
+     * Separadores de palabras: todo lo que no es letra o número.
+     */
+    private static final Pattern SEPARADORES = Pattern.compile("[^\\p{L}\\p{N}]+");
+
+    /**
+     * Entrega el libro de un identificador interno (el catálogo).
+     */
+    private final IntFunction<Libro> libros;
+
+    /**
+     * Palabra normalizada -> libros que la contienen.
+     */
+    private final NavigableMap<String, Apariciones> palabras;
+
+    /**
+     * The Constructor.
+     *
+     * @param libros entrega el libro de cada identificador interno.
+     */
+    IndiceTexto(final IntFunction<Libro> libros) {
+        this.libros = libros;
+        this.palabras = new TreeMap<>();
+    }
+
+    /**
+     * Método agregar: indexa el titulo y el autor de un libro.
+     *
+     * @param libro a indexar (con su identificador interno ya asignado, mayor al de los libros ya indexados).
+     */
+    void agregar(final Libro libro) {
+        int id = libro.getId();
+
+        for (String palabra : palabras(libro.getTitulo())) {
+            this.palabras.computeIfAbsent(palabra, k -> new Apariciones()).agregar(id, PUNTAJE_TITULO);
+        }
+        for (String palabra : palabras(libro.getAutor())) {
+            this.palabras.computeIfAbsent(palabra, k -> new Apariciones()).agregar(id, PUNTAJE_AUTOR);
+        }
+    }
+
+    /**
+     * Método buscar:
+     * Busca los libros que contienen todas las palabras de la consulta (cada una completa o como prefijo).
+     *
+     * @param consulta con una o más palabras.
+     * @param maximo   de resultados.
+     * @return los ISBN de los libros encontrados, del más al menos relevante (vacío si no hay coincidencias).
+     */
+    List<String> buscar(final String consulta, final int maximo) {
+        String[] terminos = palabras(consulta);
+        if (terminos.length == 0 || maximo <= 0) {
+            return new ArrayList<>();
+        }
+
+        // Libros que coinciden con todos los terminos (ordenados por identificador) y su puntaje acumulado.
+        // Solo se recorren las apariciones de las palabras de la consulta, no todo el catálogo.
+        long[] resultado = null;
+        for (String termino : terminos) {
+            long[] coincidencias = this.coincidencias(termino);
+            resultado = resultado == null ? coincidencias : intersectar(resultado, coincidencias);
+            if (resultado.length == 0) {
+                break;
+            }
+        }
+
+        List<Long> encontrados = new ArrayList<>(resultado.length);
+        for (long coincidencia : resultado) {
+            encontrados.add(coincidencia);
+        }
+        // Mayor puntaje primero; a igual puntaje, por titulo.
+        encontrados.sort((a, b) -> puntaje(a) != puntaje(b)
+                ? Integer.compare(puntaje(b), puntaje(a))
+                : this.libros.apply(id(a)).getTitulo().compareToIgnoreCase(this.libros.apply(id(b)).getTitulo()));
+
+        List<String> isbns = new ArrayList<>(Math.min(maximo, encontrados.size()));
+        for (int i = 0; i < encontrados.size() && i < maximo; i++) {
+            isbns.add(this.libros.apply(id(encontrados.get(i))).getIsbn());
+        }
+        return isbns;
+    }
+
+    /**
+     * Método coincidencias: los libros con alguna palabra que empieza con el termino (incluida la palabra completa).
+     *
+     * @param termino normalizado.
+     * @return los libros y su mejor puntaje para el termino (ver coincidencia), ordenados por identificador.
+     */
+    private long[] coincidencias(final String termino) {
+        long[] coincidencias = new long[16];
+        int cantidad = 0;
+        for (Map.Entry<String, Apariciones> entry
+                : this.palabras.subMap(termino, true, termino + Character.MAX_VALUE, false).entrySet()) {
+            int factor = entry.getKey().equals(termino) ? FACTOR_PALABRA_COMPLETA : 1;
+            Apariciones apariciones = entry.getValue();
+            for (int i = 0; i < apariciones.cantidad; i++) {
+                if (cantidad == coincidencias.length) {
+                    coincidencias = Arrays.copyOf(coincidencias, cantidad * 2);
+                }
+                coincidencias[cantidad++] = coincidencia(apariciones.libros[i], apariciones.puntajes[i] * factor);
+            }
+        }
+        Arrays.sort(coincidencias, 0, cantidad);
+
+        // Un libro que coincide con varias palabras queda una sola vez, con su mejor puntaje (el último, al ordenar).
+        int unicos = 0;
+        for (int i = 0; i < cantidad; i++) {
+            if (i + 1 < cantidad && id(coincidencias[i + 1]) == id(coincidencias[i])) {
+                continue;
+            }
+            coincidencias[unicos++] = coincidencias[i];
+        }
+        return Arrays.copyOf(coincidencias, unicos);
+    }
+
+    /**
+     * Método intersectar: los libros que están en ambas listas, sumando sus puntajes.
+     *
+     * @param a lista ordenada por identificador.
+     * @param b lista ordenada por identificador.
+     * @return la intersección, ordenada por identificador.
+     */
+    private static long[] intersectar(final long[] a, final long[] b) {
+        long[] interseccion = new long[Math.min(a.length, b.length)];
+        int cantidad = 0;
+        int i = 0;
+        int j = 0;
+        while (i < a.length && j < b.length) {
+            int idA = id(a[i]);
+            int idB = id(b[j]);
+            if (idA < idB) {
+                i++;
+            } else if (idA > idB) {
+                j++;
+            } else {
+                interseccion[cantidad++] = coincidencia(idA, puntaje(a[i]) + puntaje(b[j]));
+                i++;
+                j++;
+            }
+        }
+        return Arrays.copyOf(interseccion, cantidad);
+    }
+
+    /**
+     * Método coincidencia: junta el identificador del libro y el puntaje en un solo long (el identificador en los
+     * bits altos, así al ordenar quedan por identificador y luego por puntaje).
+     *
+     * @param id      del libro.
+     * @param puntaje de la coincidencia.
+     * @return la coincidencia.
+     */
+    private static long coincidencia(final int id, final int puntaje) {
+        return ((long) id << 32) | puntaje;
+    }
+
+    /**
+     * @param coincidencia a leer.
+     * @return el identificador del libro.
+     */
+    private static int id(final long coincidencia) {
+        return (int) (coincidencia >>> 32);
+    }
+
+    /**
+     * @param coincidencia a leer.
+     * @return el puntaje.
+     */
+    private static int puntaje(final long coincidencia) {
+        return (int) coincidencia;
+    }
+
+    /**
+     * Método palabras: separa el texto en palabras normalizadas (minúsculas, sin tildes), sin repetir.
+     *
+     * @param texto a separar.
+     * @return las palabras del texto.
+     */
+    static String[] palabras(final String texto) {
+        if (texto == null) {
+            return new String[0];
+        }
+        String normalizado = DIACRITICOS.matcher(Normalizer.normalize(texto, Normalizer.Form.NFD)).replaceAll("");
+        return Arrays.stream(SEPARADORES.split(normalizado.toLowerCase(Locale.ROOT)))
+                .filter(palabra -> !palabra.isEmpty())
+                .distinct()
+                .toArray(String[]::new);
+    }
+
+    /**
+     * Los libros en que aparece una palabra (en orden de identificador), con el puntaje de la aparición.
+     */
+    private static final class Apariciones {
+
+        /**
+         * Identificadores de los libros.
+         */
+        private int[] libros = new int[4];
+
+        /**
+         * Puntaje de la aparición en cada libro (el mayor, si aparece en el titulo y el autor).
+         */
+        private int[] puntajes = new int[4];
+
+        /**
+         * Cantidad de libros.
+         */
+        private int cantidad;
+
+        /**
+         * Registra la aparición de la palabra en un libro.
+         *
+         * @param id      del libro (mayor o igual al último agregado).
+         * @param puntaje de la aparición.
+         */
+        void agregar(final int id, final int puntaje) {
+            if (this.cantidad > 0 && this.libros[this.cantidad - 1] == id) {
+                this.puntajes[this.cantidad - 1] = Math.max(this.puntajes[this.cantidad - 1], puntaje);
+                return;
+            }
+            if (this.cantidad == this.libros.length) {
+                this.libros = Arrays.copyOf(this.libros, this.cantidad * 2);
+                this.puntajes = Arrays.copyOf(this.puntajes, this.cantidad * 2);
+            }
+            this.libros[this.cantidad] = id;
+            this.puntajes[this.cantidad] = puntaje;
+            this.cantidad++;
+        }
+    }
+}
@@ -0,0 +1,308 @@
+/*
+ * Copyright (c) 2023. Programacion Avanzada, DISC, UCN.
+ */
+
+package cl.ucn.disc.pa.bibliotech.services;
+
+import cl.ucn.disc.pa.bibliotech.model.Libro;
+import cl.ucn.disc.pa.bibliotech.model.VistaLibro;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Instantánea (inmutable) del catálogo en un momento dado: sus libros, en el orden del catálogo, y cuáles estaban
+ * disponibles. Se puede leer y recorrer desde cualquier hilo sin candados, y no cambia aunque despues se presten,
+ * devuelvan o agreguen libros: cada cambio crea una instantánea nueva.
+ * <p>
+ * Los libros se guardan en un árbol de hojas de 64 libros (un vector persistente, indexado por el identificador
+ * interno del libro), y cada hoja tiene los bits de disponibilidad de sus libros en un long. Un cambio solo copia
+ * el camino desde la raíz hasta la hoja que cambia (unos pocos arreglos de 64 referencias): las demás hojas se
+ * comparten con la instantánea anterior. Prestar o devolver un libro ni siquiera copia los libros de la hoja, solo
+ * su long de disponibilidad.
+ *
+ * @author Programacion Avanzada.
+ */
+public final class InstantaneaCatalogo implements Iterable<VistaLibro> {
+
+    /**
+     * Bits del identificador que usa cada nivel del árbol.
+     */
+    private static final int BITS = 6;
+
+    /**
+     * Cantidad de hijos de una rama y de libros de una hoja (64: un long de disponibilidad por hoja).
+     */
+    private static final int ANCHO = 1 << BITS;
+
+    /**
+     * Mascara de la posición dentro de un nivel.
+     */
+    private static final int MASCARA = ANCHO - 1;
+
+    /**
+     * La instantánea de un catálogo sin libros.
+     */
+    static final InstantaneaCatalogo VACIA = new InstantaneaCatalogo(new Hoja(new Libro[ANCHO], 0L), 0, 0, 0);
+
+    /**
+     * La raíz del árbol (una Hoja si el desplazamiento es 0, si no una Rama).
+     */
+    private final Object raiz;
+
+    /**
+     * Desplazamiento (en bits) del identificador en el nivel de la raíz.
+     */
+    private final int desplazamiento;
+
+    /**
+     * Cantidad de libros.
+     */
+    private final int cantidad;
+
+    /**
+     * Cantidad de libros disponibles.
+     */
+    private final int cantidadDisponibles;
+
+    /**
+     * The Constructor.
+     *
+     * @param raiz                del árbol.
+     * @param desplazamiento      del nivel de la raíz.
+     * @param cantidad            de libros.
+     * @param cantidadDisponibles de libros disponibles.
+     */
+    private InstantaneaCatalogo(final Object raiz, final int desplazamiento, final int cantidad,
+                                final int cantidadDisponibles) {
+        this.raiz = raiz;
+        this.desplazamiento = desplazamiento;
+        this.cantidad = cantidad;
+        this.cantidadDisponibles = cantidadDisponibles;
+    }
+
+    /**
+     * @return la cantidad de libros de la instantánea.
+     */
+    public int cantidad() {
+        return this.cantidad;
+    }
+
+    /**
+     * @return la cantidad de libros disponibles (no prestados) en la instantánea.
+     */
+    public int cantidadDisponibles() {
+        return this.cantidadDisponibles;
+    }
+
+    /**
+     * Método vista.
+     *
+     * @param id interno del libro.
+     * @return los datos del libro, con su estado de préstamo en la instantánea (null si no hay un libro con ese
+     * identificador en la instantánea).
+     */
+    public VistaLibro vista(final int id) {
+        Libro libro = this.libro(id);
+        return libro == null ? null : new VistaLibro(libro, !this.disponible(id));
+    }
+
+    /**
+     * @return los libros de la instantánea (con su estado de préstamo en ella), en el orden del catálogo.
+     */
+    @Override
+    public Iterator<VistaLibro> iterator() {
+        return new Iterator<>() {
+            private int id = 0;
+
+            @Override
+            public boolean hasNext() {
+                return this.id < InstantaneaCatalogo.this.cantidad;
+            }
+
+            @Override
+            public VistaLibro next() {
+                if (!this.hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                return InstantaneaCatalogo.this.vista(this.id++);
+            }
+        };
+    }
+
+    /**
+     * Método libro.
+     *
+     * @param id interno del libro.
+     * @return el libro, o null si no hay un libro con ese identificador en la instantánea.
+     */
+    Libro libro(final int id) {
+        if (id < 0 || id >= this.cantidad) {
+            return null;
+        }
+        return this.hoja(id).libros[id & MASCARA];
+    }
+
+    /**
+     * Método disponible.
+     *
+     * @param id interno del libro (de la instantánea).
+     * @return true si el libro estaba disponible en la instantánea.
+     */
+    boolean disponible(final int id) {
+        return (this.hoja(id).disponibles & (1L << id)) != 0;
+    }
+
+    /**
+     * Método siguienteDisponible.
+     *
+     * @param desde identificador interno (incluido).
+     * @return el identificador del primer libro disponible desde la posición, o -1 si no hay. Las hojas sin libros
+     * disponibles se saltan revisando solo su long de disponibilidad.
+     */
+    int siguienteDisponible(final int desde) {
+        int id = Math.max(0, desde);
+        while (id < this.cantidad) {
+            long bits = this.hoja(id).disponibles & (-1L << id);
+            if (bits != 0) {
+                int encontrado = (id & ~MASCARA) + Long.numberOfTrailingZeros(bits);
+                return encontrado < this.cantidad ? encontrado : -1;
+            }
+            id = (id | MASCARA) + 1;
+        }
+        return -1;
+    }
+
+    /**
+     * Método conLibro: la instantánea con un libro más al final (su identificador es la cantidad actual).
+     *
+     * @param libro      a agregar.
+     * @param disponible si el libro está disponible.
+     * @return la nueva instantánea (esta no cambia).
+     */
+    InstantaneaCatalogo conLibro(final Libro libro, final boolean disponible) {
+        int id = this.cantidad;
+        Object nuevaRaiz = this.raiz;
+        int nuevoDesplazamiento = this.desplazamiento;
+        if (id == 1L << (this.desplazamiento + BITS)) {
+            // El árbol está lleno: la raíz actual pasa a ser el primer hijo de una raíz nueva.
+            Object[] hijos = new Object[ANCHO];
+            hijos[0] = this.raiz;
+            nuevaRaiz = new Rama(hijos);
+            nuevoDesplazamiento += BITS;
+        }
+        nuevaRaiz = asignar(nuevaRaiz, nuevoDesplazamiento, id, hoja -> {
+            Libro[] libros = hoja == null ? new Libro[ANCHO] : hoja.libros.clone();
+            libros[id & MASCARA] = libro;
+            long disponibles = hoja == null ? 0L : hoja.disponibles;
+            return new Hoja(libros, disponible ? disponibles | (1L << id) : disponibles);
+        });
+        return new InstantaneaCatalogo(nuevaRaiz, nuevoDesplazamiento, id + 1,
+                this.cantidadDisponibles + (disponible ? 1 : 0));
+    }
+
+    /**
+     * Método conDisponibilidad: la instantánea con el libro disponible o prestado.
+     *
+     * @param id         interno del libro (de la instantánea).
+     * @param disponible nuevo estado del libro.
+     * @return la nueva instantánea, o esta misma si el libro ya tenía ese estado.
+     */
+    InstantaneaCatalogo conDisponibilidad(final int id, final boolean disponible) {
+        if (id < 0 || id >= this.cantidad) {
+            throw new IllegalArgumentException("No hay un libro con identificador " + id + " en el catálogo.");
+        }
+        if (this.disponible(id) == disponible) {
+            return this;
+        }
+        Object nuevaRaiz = asignar(this.raiz, this.desplazamiento, id,
+                hoja -> new Hoja(hoja.libros, hoja.disponibles ^ (1L << id)));
+        return new InstantaneaCatalogo(nuevaRaiz, this.desplazamiento, this.cantidad,
+                this.cantidadDisponibles + (disponible ? 1 : -1));
+    }
+
+    /**
+     * @return los libros de la instantánea, en el orden del catálogo.
+     */
+    Iterable<Libro> libros() {
+        return () -> new Iterator<>() {
+            private int id = 0;
+
+            @Override
+            public boolean hasNext() {
+                return this.id < InstantaneaCatalogo.this.cantidad;
+            }
+
+            @Override
+            public Libro next() {
+                if (!this.hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                return InstantaneaCatalogo.this.libro(this.id++);
+            }
+        };
+    }
+
+    /**
+     * Método hoja.
+     *
+     * @param id interno del libro (de la instantánea).
+     * @return la hoja que contiene al libro.
+     */
+    private Hoja hoja(final int id) {
+        Object nodo = this.raiz;
+        for (int nivel = this.desplazamiento; nivel > 0; nivel -= BITS) {
+            nodo = ((Rama) nodo).hijos[(id >>> nivel) & MASCARA];
+        }
+        return (Hoja) nodo;
+    }
+
+    /**
+     * Método asignar: copia el camino desde el nodo hasta la hoja del identificador, y reemplaza la hoja.
+     *
+     * @param nodo           del árbol (null si aún no existe).
+     * @param desplazamiento del nivel del nodo.
+     * @param id             interno del libro.
+     * @param cambio         que entrega la hoja nueva a partir de la actual (null si aún no existe).
+     * @return el nodo nuevo.
+     */
+    private static Object asignar(final Object nodo, final int desplazamiento, final int id, final Cambio cambio) {
+        if (desplazamiento == 0) {
+            return cambio.aplicar((Hoja) nodo);
+        }
+        Object[] hijos = nodo == null ? new Object[ANCHO] : ((Rama) nodo).hijos.clone();
+        int posicion = (id >>> desplazamiento) & MASCARA;
+        hijos[posicion] = asignar(hijos[posicion], desplazamiento - BITS, id, cambio);
+        return new Rama(hijos);
+    }
+
+    /**
+     * Cambio de una hoja.
+     */
+    @FunctionalInterface
+    private interface Cambio {
+
+        /**
+         * @param hoja actual (null si aún no existe).
+         * @return la hoja nueva.
+         */
+        Hoja aplicar(Hoja hoja);
+    }
+
+    /**
+     * Un nodo interno del árbol.
+     *
+     * @param hijos del nodo (null los que aún no existen).
+     */
+    private record Rama(Object[] hijos) {
+    }
+
+    /**
+     * Una hoja del árbol: hasta 64 libros y sus bits de disponibilidad.
+     *
+     * @param libros      de la hoja (no se modifica una vez publicada).
+     * @param disponibles bit i encendido si el libro i de la hoja está disponible.
+     */
+    private record Hoja(Libro[] libros, long disponibles) {
+    }
+}
@@ -0,0 +1,30 @@
+/*
+ * Copyright (c) 2023. Programacion Avanzada, DISC, UCN.
+ */
+
+package cl.ucn.disc.pa.bibliotech.services;
+
+/**
+ * Recibe el avance de la carga de un archivo de datos.
+ *
+ * @author Programacion Avanzada.
+ */
+@FunctionalInterface
+public interface ProgresoCarga {
+
+    /**
+     * Progreso que no informa nada.
+     */
+    ProgresoCarga NINGUNO = (archivo, registros, bytesLeidos, bytesTotales) -> {
+    };
+
+    /**
+     * Método avance: se llama periódicamente durante la carga, y una última vez al terminar el archivo.
+     *
+     * @param archivo      que se está cargando.
+     * @param registros    leidos hasta el momento.
+     * @param bytesLeidos  hasta el momento.
+     * @param bytesTotales del archivo.
+     */
+    void avance(String archivo, long registros, long bytesLeidos, long bytesTotales);
+}
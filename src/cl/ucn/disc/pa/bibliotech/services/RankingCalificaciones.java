@@ -0,0 +1,141 @@
+/*
+ * Copyright (c) 2023. Programacion Avanzada, DISC, UCN.
+ */
+
+package cl.ucn.disc.pa.bibliotech.services;
+
+import cl.ucn.disc.pa.bibliotech.model.Libro;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.TreeSet;
+
+/**
+ * Ranking de los libros mejor calificados: los libros con una cantidad minima de votos, ordenados por su
+ * calificación promedio (a igual promedio, el de más votos y luego por identificador interno). Hay un ranking
+ * general y uno por categoría (árboles ordenados), y se actualizan con cada calificación sin ordenar el catálogo:
+ * la entrada anterior del libro (buscada por su identificador) se saca y se agrega la nueva (O(log n)).
+ * Se puede usar desde varios hilos (cada operación usa el candado del ranking).
+ *
+ * @author Programacion Avanzada.
+ */
+final class RankingCalificaciones {
+
+    /**
+     * Orden del ranking: mayor promedio primero, luego más votos, luego por identificador del libro.
+     */
+    private static final Comparator<Entrada> ORDEN = Comparator
+            .comparingDouble(Entrada::promedio).reversed()
+            .thenComparing(Comparator.comparingInt(Entrada::votos).reversed())
+            .thenComparingInt(entrada -> entrada.libro().getId());
+
+    /**
+     * Cantidad minima de votos para entrar al ranking.
+     */
+    private final int minimoVotos;
+
+    /**
+     * El ranking general.
+     */
+    private final NavigableSet<Entrada> general;
+
+    /**
+     * El ranking de cada categoría.
+     */
+    private final Map<String, NavigableSet<Entrada>> porCategoria;
+
+    /**
+     * La entrada actual de cada libro en el ranking (la posición es el identificador del libro, null si no está).
+     */
+    private Entrada[] entradas;
+
+    /**
+     * The Constructor.
+     *
+     * @param minimoVotos para entrar al ranking (al menos 1).
+     * @param libros      iniciales.
+     */
+    RankingCalificaciones(final int minimoVotos, final Iterable<Libro> libros) {
+        if (minimoVotos <= 0) {
+            throw new IllegalArgumentException("El minimo de votos debe ser mayor a 0.");
+        }
+        this.minimoVotos = minimoVotos;
+        this.general = new TreeSet<>(ORDEN);
+        this.porCategoria = new HashMap<>();
+        this.entradas = new Entrada[16];
+        for (Libro libro : libros) {
+            this.actualizar(libro);
+        }
+    }
+
+    /**
+     * Método actualizar: refleja en el ranking la calificación actual del libro.
+     * Se debe llamar cada vez que cambia la calificación de un libro (o se agrega uno nuevo).
+     *
+     * @param libro que cambió.
+     */
+    synchronized void actualizar(final Libro libro) {
+        int id = libro.getId();
+        if (id >= this.entradas.length) {
+            this.entradas = Arrays.copyOf(this.entradas, Math.max(id + 1, this.entradas.length * 2));
+        }
+
+        Entrada anterior = this.entradas[id];
+        this.entradas[id] = null;
+        if (anterior != null) {
+            this.general.remove(anterior);
+            NavigableSet<Entrada> categoria = this.porCategoria.get(libro.getCategoria());
+            categoria.remove(anterior);
+            if (categoria.isEmpty()) {
+                this.porCategoria.remove(libro.getCategoria());
+            }
+        }
+
+        if (libro.getCantidadVotos() < this.minimoVotos) {
+            return;
+        }
+        Entrada nueva = new Entrada(libro, libro.getCalificacion(), libro.getCantidadVotos());
+        this.entradas[id] = nueva;
+        this.general.add(nueva);
+        this.porCategoria.computeIfAbsent(libro.getCategoria(), k -> new TreeSet<>(ORDEN)).add(nueva);
+    }
+
+    /**
+     * Método mejores.
+     *
+     * @param cantidad  maxima de libros.
+     * @param categoria de los libros (null para todas).
+     * @return los ISBN de los libros mejor calificados, del mejor al peor (vacío si no hay).
+     */
+    synchronized List<String> mejores(final int cantidad, final String categoria) {
+        if (cantidad <= 0) {
+            throw new IllegalArgumentException("La cantidad debe ser mayor a 0.");
+        }
+        NavigableSet<Entrada> ranking = categoria == null ? this.general : this.porCategoria.get(categoria);
+        List<String> isbns = new ArrayList<>();
+        if (ranking == null) {
+            return isbns;
+        }
+        Iterator<Entrada> iterator = ranking.iterator();
+        while (iterator.hasNext() && isbns.size() < cantidad) {
+            isbns.add(iterator.next().libro().getIsbn());
+        }
+        return isbns;
+    }
+
+    /**
+     * La calificación de un libro al momento de entrar al ranking (inmutable, para no desordenar los árboles).
+     *
+     * @param libro    calificado.
+     * @param promedio de las calificaciones.
+     * @param votos    cantidad de calificaciones.
+     */
+    private record Entrada(Libro libro, double promedio, int votos) {
+    }
+}
@@ -0,0 +1,111 @@
+/*
+ * Copyright (c) 2023. Programacion Avanzada, DISC, UCN.
+ */
+
+package cl.ucn.disc.pa.bibliotech.services;
+
+import cl.ucn.disc.pa.bibliotech.model.Calificacion;
+import cl.ucn.disc.pa.bibliotech.model.Libro;
+import cl.ucn.disc.pa.bibliotech.model.Socio;
+
+import java.io.IOException;
+
+/**
+ * Persistencia de los libros, socios y calificaciones del sistema.
+ * El Sistema trabaja en memoria con los objetos entregados por cargar, y despues de cada operación (ya aplicada
+ * en memoria) informa al repositorio lo que cambió, para que lo guarde. Las operaciones pueden llegar desde varios
+ * hilos (una por cada sesión), y cada implementación las guarda una a la vez, en el orden en que llegan.
+ * <p>
+ * Si un método guardar lanza una excepción, la operación no queda guardada: quien lo llama debe deshacerla en
+ * memoria.
+ *
+ * @author Programacion Avanzada.
+ */
+public interface Repositorio extends AutoCloseable {
+
+    /**
+     * Método cargar: lee todos los libros (sin sus calificaciones) y socios. Si no hay datos guardados, entrega arreglos vacíos.
+     *
+     * @param progreso que recibe el avance de la carga.
+     * @return los libros y socios.
+     * @throws IOException en caso de algun error.
+     */
+    Datos cargar(ProgresoCarga progreso) throws IOException;
+
+    /**
+     * Método cargarCalificaciones: lee las calificaciones de un libro. Los libros entregados por cargar no traen
+     * sus calificaciones, que se leen con este método solo cuando se necesitan.
+     *
+     * @param libro del que se leen las calificaciones.
+     * @return las calificaciones del libro (vacío si no tiene).
+     * @throws IOException en caso de algun error.
+     */
+    Calificacion[] cargarCalificaciones(Libro libro) throws IOException;
+
+    /**
+     * Método guardarNuevoLibro: guarda un libro recién agregado al catálogo.
+     *
+     * @param libro agregado.
+     * @throws IOException en caso de algun error.
+     */
+    void guardarNuevoLibro(Libro libro) throws IOException;
+
+    /**
+     * Método guardarNuevoSocio: guarda un socio recién registrado.
+     *
+     * @param socio registrado.
+     * @throws IOException en caso de algun error.
+     */
+    void guardarNuevoSocio(Socio socio) throws IOException;
+
+    /**
+     * Método guardarPrestamo: guarda el préstamo del libro al socio.
+     *
+     * @param socio que pidió el libro.
+     * @param libro prestado.
+     * @throws IOException en caso de algun error.
+     */
+    void guardarPrestamo(Socio socio, Libro libro) throws IOException;
+
+    /**
+     * Método guardarDevolucion: guarda la devolución del libro por parte del socio.
+     *
+     * @param socio que devolvió el libro.
+     * @param libro devuelto.
+     * @throws IOException en caso de algun error.
+     */
+    void guardarDevolucion(Socio socio, Libro libro) throws IOException;
+
+    /**
+     * Método guardarCalificacion: guarda (o reemplaza) la calificación del socio al libro.
+     *
+     * @param libro     calificado.
+     * @param socio     que califica.
+     * @param estrellas de la calificación.
+     * @throws IOException en caso de algun error.
+     */
+    void guardarCalificacion(Libro libro, Socio socio, int estrellas) throws IOException;
+
+    /**
+     * Método guardarPerfil: guarda los datos personales del socio (nombre, apellido, correo y contraseña).
+     *
+     * @param socio modificado.
+     * @throws IOException en caso de algun error.
+     */
+    void guardarPerfil(Socio socio) throws IOException;
+
+    /**
+     * Método sincronizar: escribe de inmediato los cambios que estén pendientes.
+     *
+     * @throws IOException en caso de algun error.
+     */
+    void sincronizar() throws IOException;
+
+    /**
+     * Método close: escribe los cambios pendientes y libera los recursos del repositorio.
+     *
+     * @throws IOException en caso de algun error.
+     */
+    @Override
+    void close() throws IOException;
+}
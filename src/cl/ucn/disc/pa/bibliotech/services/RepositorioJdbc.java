@@ -0,0 +1,297 @@
+/*
+ * Copyright (c) 2023. Programacion Avanzada, DISC, UCN.
+ */
+
+package cl.ucn.disc.pa.bibliotech.services;
+
+import cl.ucn.disc.pa.bibliotech.model.Calificacion;
+import cl.ucn.disc.pa.bibliotech.model.Libro;
+import cl.ucn.disc.pa.bibliotech.model.Socio;
+
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Repositorio basado en una base de datos SQL embebida (en el mismo proceso, guardada en un archivo, sin servidor),
+ * por ejemplo H2 ("jdbc:h2:./bibliotech") o SQLite ("jdbc:sqlite:bibliotech.db"). El driver JDBC correspondiente
+ * debe estar en el classpath (carpeta lib).
+ * <p>
+ * Cada operación es una actualización de una o dos filas (en una transacción), en vez de reescribir todos los datos,
+ * y las búsquedas usan las llaves primarias de las tablas.
+ * <p>
+ * Limitación conocida: se usa una sola conexión, y las operaciones se sincronizan con el candado del repositorio,
+ * por lo que se guardan de a una (cada una espera el commit de la anterior en la base de datos). Para guardar
+ * operaciones en paralelo se necesita un pool de conexiones.
+ *
+ * @author Programacion Avanzada.
+ */
+public final class RepositorioJdbc implements Repositorio {
+
+    /**
+     * Creación de las tablas (si no existen).
+     */
+    private static final String[] ESQUEMA = {
+            "CREATE TABLE IF NOT EXISTS libros ("
+                    + "isbn VARCHAR(32) PRIMARY KEY, titulo VARCHAR(512) NOT NULL, autor VARCHAR(512) NOT NULL, "
+                    + "categoria VARCHAR(256) NOT NULL, prestado BOOLEAN NOT NULL)",
+            "CREATE TABLE IF NOT EXISTS socios ("
+                    + "numero INTEGER PRIMARY KEY, nombre VARCHAR(256) NOT NULL, apellido VARCHAR(256) NOT NULL, "
+                    + "correo VARCHAR(256) NOT NULL, contrasenia VARCHAR(256) NOT NULL)",
+            "CREATE TABLE IF NOT EXISTS prestamos ("
+                    + "socio INTEGER NOT NULL, isbn VARCHAR(32) NOT NULL, PRIMARY KEY (socio, isbn))",
+            "CREATE TABLE IF NOT EXISTS calificaciones ("
+                    + "isbn VARCHAR(32) NOT NULL, socio INTEGER NOT NULL, estrellas INTEGER NOT NULL, PRIMARY KEY (isbn, socio))"
+    };
+
+    /**
+     * Actualiza el estado de un libro según sus préstamos: está prestado si algún socio lo tiene. Así el estado no
+     * depende del orden en que lleguen el préstamo y la devolución de dos socios distintos.
+     */
+    private static final String ACTUALIZAR_PRESTADO = "UPDATE libros SET prestado = "
+            + "EXISTS (SELECT 1 FROM prestamos WHERE prestamos.isbn = libros.isbn) WHERE isbn = ?";
+
+    /**
+     * Conexión a la base de datos (las operaciones la usan una a la vez).
+     */
+    private final Connection connection;
+
+    /**
+     * The Constructor: abre la base de datos y crea las tablas si no existen.
+     *
+     * @param url JDBC de la base de datos embebida.
+     * @throws IOException si no se puede abrir la base de datos.
+     */
+    public RepositorioJdbc(final String url) throws IOException {
+        try {
+            this.connection = DriverManager.getConnection(url);
+            try (Statement statement = this.connection.createStatement()) {
+                for (String sql : ESQUEMA) {
+                    statement.executeUpdate(sql);
+                }
+            }
+        } catch (SQLException ex) {
+            throw new IOException("No se pudo abrir la base de datos: " + url, ex);
+        }
+    }
+
+    /**
+     * Método cargar: lee los libros (sin sus calificaciones, solo la suma de estrellas y la cantidad de votos) y los
+     * socios (con sus préstamos).
+     *
+     * @param progreso que recibe el avance de la carga.
+     * @return los libros y socios.
+     * @throws IOException en caso de algun error.
+     */
+    @Override
+    public Datos cargar(final ProgresoCarga progreso) throws IOException {
+        try (Statement statement = this.connection.createStatement()) {
+
+            List<Libro> libros = new ArrayList<>();
+            Map<String, Libro> porIsbn = new HashMap<>();
+            try (ResultSet rs = statement.executeQuery("SELECT isbn, titulo, autor, categoria, prestado FROM libros")) {
+                while (rs.next()) {
+                    Libro libro = new Libro(rs.getString(1), rs.getString(2), rs.getString(3), rs.getString(4));
+                    libro.setPrestado(rs.getBoolean(5));
+                    libro.descargarCalificaciones();
+                    libros.add(libro);
+                    porIsbn.put(libro.getIsbn(), libro);
+                }
+            }
+
+            try (ResultSet rs = statement.executeQuery(
+                    "SELECT isbn, SUM(estrellas), COUNT(*) FROM calificaciones GROUP BY isbn")) {
+                while (rs.next()) {
+                    Libro libro = porIsbn.get(rs.getString(1));
+                    if (libro != null) {
+                        libro.restaurarTotales(rs.getInt(2), rs.getInt(3));
+                    }
+                }
+            }
+            progreso.avance("libros", libros.size(), 0, 0);
+
+            List<Socio> socios = new ArrayList<>();
+            Map<Integer, Socio> porNumero = new HashMap<>();
+            try (ResultSet rs = statement.executeQuery("SELECT nombre, apellido, correo, numero, contrasenia FROM socios")) {
+                while (rs.next()) {
+                    Socio socio = new Socio(rs.getString(1), rs.getString(2), rs.getString(3), rs.getInt(4), rs.getString(5));
+                    socios.add(socio);
+                    porNumero.put(socio.getNumeroDeSocio(), socio);
+                }
+            }
+            progreso.avance("socios", socios.size(), 0, 0);
+
+            try (ResultSet rs = statement.executeQuery("SELECT socio, isbn FROM prestamos ORDER BY socio, isbn")) {
+                while (rs.next()) {
+                    Socio socio = porNumero.get(rs.getInt(1));
+                    Libro libro = porIsbn.get(rs.getString(2));
+                    if (socio != null && libro != null) {
+                        socio.agregarLibro(libro);
+                    }
+                }
+            }
+
+            return new Datos(libros.toArray(new Libro[0]), socios.toArray(new Socio[0]));
+        } catch (SQLException ex) {
+            throw new IOException("No se pudo cargar la información.", ex);
+        }
+    }
+
+    /**
+     * Método cargarCalificaciones: lee las calificaciones de un libro, usando la llave primaria (isbn, socio).
+     *
+     * @param libro del que se leen las calificaciones.
+     * @return las calificaciones del libro.
+     * @throws IOException en caso de algun error.
+     */
+    @Override
+    public synchronized Calificacion[] cargarCalificaciones(final Libro libro) throws IOException {
+        try (PreparedStatement statement = this.connection.prepareStatement(
+                "SELECT socio, estrellas FROM calificaciones WHERE isbn = ? ORDER BY socio")) {
+            statement.setString(1, libro.getIsbn());
+            List<Calificacion> calificaciones = new ArrayList<>();
+            try (ResultSet rs = statement.executeQuery()) {
+                while (rs.next()) {
+                    calificaciones.add(new Calificacion(rs.getInt(2), rs.getInt(1)));
+                }
+            }
+            return calificaciones.toArray(new Calificacion[0]);
+        } catch (SQLException ex) {
+            throw new IOException("No se pudieron cargar las calificaciones del libro " + libro.getIsbn(), ex);
+        }
+    }
+
+    @Override
+    public synchronized void guardarNuevoLibro(final Libro libro) throws IOException {
+        this.ejecutar("INSERT INTO libros (isbn, titulo, autor, categoria, prestado) VALUES (?, ?, ?, ?, ?)",
+                libro.getIsbn(), libro.getTitulo(), libro.getAutor(), libro.getCategoria(), libro.getPrestado());
+    }
+
+    @Override
+    public synchronized void guardarNuevoSocio(final Socio socio) throws IOException {
+        this.ejecutar("INSERT INTO socios (numero, nombre, apellido, correo, contrasenia) VALUES (?, ?, ?, ?, ?)",
+                socio.getNumeroDeSocio(), socio.getNombre(), socio.getApellido(), socio.getCorreoElectronico(),
+                socio.getContrasenia());
+    }
+
+    @Override
+    public synchronized void guardarPrestamo(final Socio socio, final Libro libro) throws IOException {
+        this.transaccion(() -> {
+            this.ejecutar("INSERT INTO prestamos (socio, isbn) VALUES (?, ?)", socio.getNumeroDeSocio(), libro.getIsbn());
+            this.ejecutar(ACTUALIZAR_PRESTADO, libro.getIsbn());
+        });
+    }
+
+    @Override
+    public synchronized void guardarDevolucion(final Socio socio, final Libro libro) throws IOException {
+        this.transaccion(() -> {
+            this.ejecutar("DELETE FROM prestamos WHERE socio = ? AND isbn = ?", socio.getNumeroDeSocio(), libro.getIsbn());
+            this.ejecutar(ACTUALIZAR_PRESTADO, libro.getIsbn());
+        });
+    }
+
+    @Override
+    public synchronized void guardarCalificacion(final Libro libro, final Socio socio, final int estrellas) throws IOException {
+        this.transaccion(() -> {
+            int filas = this.ejecutar("UPDATE calificaciones SET estrellas = ? WHERE isbn = ? AND socio = ?",
+                    estrellas, libro.getIsbn(), socio.getNumeroDeSocio());
+            if (filas == 0) {
+                this.ejecutar("INSERT INTO calificaciones (isbn, socio, estrellas) VALUES (?, ?, ?)",
+                        libro.getIsbn(), socio.getNumeroDeSocio(), estrellas);
+            }
+        });
+    }
+
+    @Override
+    public synchronized void guardarPerfil(final Socio socio) throws IOException {
+        this.ejecutar("UPDATE socios SET nombre = ?, apellido = ?, correo = ?, contrasenia = ? WHERE numero = ?",
+                socio.getNombre(), socio.getApellido(), socio.getCorreoElectronico(), socio.getContrasenia(),
+                socio.getNumeroDeSocio());
+    }
+
+    /**
+     * Método sincronizar: cada operación se confirma al ejecutarse, no hay nada pendiente.
+     */
+    @Override
+    public void sincronizar() {
+        // nothing here
+    }
+
+    /**
+     * Método close: cierra la conexión a la base de datos.
+     *
+     * @throws IOException en caso de algun error.
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            this.connection.close();
+        } catch (SQLException ex) {
+            throw new IOException("No se pudo cerrar la base de datos.", ex);
+        }
+    }
+
+    /**
+     * Ejecuta una sentencia de actualización con sus parámetros.
+     *
+     * @param sql        a ejecutar.
+     * @param parametros de la sentencia, en orden.
+     * @return la cantidad de filas modificadas.
+     * @throws IOException en caso de algun error.
+     */
+    private int ejecutar(final String sql, final Object... parametros) throws IOException {
+        try (PreparedStatement statement = this.connection.prepareStatement(sql)) {
+            for (int i = 0; i < parametros.length; i++) {
+                statement.setObject(i + 1, parametros[i]);
+            }
+            return statement.executeUpdate();
+        } catch (SQLException ex) {
+            throw new IOException("Error al ejecutar: " + sql, ex);
+        }
+    }
+
+    /**
+     * Ejecuta las operaciones en una sola transacción: se confirman todas, o ninguna.
+     *
+     * @param operaciones a ejecutar.
+     * @throws IOException en caso de algun error (la transacción se deshace).
+     */
+    private void transaccion(final Operaciones operaciones) throws IOException {
+        try {
+            this.connection.setAutoCommit(false);
+            try {
+                operaciones.ejecutar();
+                this.connection.commit();
+            } catch (IOException | RuntimeException ex) {
+                this.connection.rollback();
+                throw ex;
+            } finally {
+                this.connection.setAutoCommit(true);
+            }
+        } catch (SQLException ex) {
+            throw new IOException("Error en la transacción.", ex);
+        }
+    }
+
+    /**
+     * Operaciones que se ejecutan dentro de una transacción.
+     */
+    @FunctionalInterface
+    private interface Operaciones {
+
+        /**
+         * Ejecuta las operaciones.
+         *
+         * @throws IOException en caso de algun error.
+         */
+        void ejecutar() throws IOException;
+    }
+}
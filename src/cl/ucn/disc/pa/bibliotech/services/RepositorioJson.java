@@ -0,0 +1,1035 @@
+/*
+ * Copyright (c) 2023. Programacion Avanzada, DISC, UCN.
+ */
+
+package cl.ucn.disc.pa.bibliotech.services;
+
+import cl.ucn.disc.pa.bibliotech.model.Calificacion;
+import cl.ucn.disc.pa.bibliotech.model.Libro;
+import cl.ucn.disc.pa.bibliotech.model.Socio;
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Repositorio basado en los archivos libros.json y socios.json.
+ * Las operaciones se agregan a una bitacora (bitacora.log), y cada cierto tiempo se guardan los archivos
+ * completos (solo los que cambiaron). Al iniciar, se carga la copia binaria si está al día (o los archivos JSON),
+ * y se vuelven a aplicar las operaciones de la bitacora.
+ * <p>
+ * Opcionalmente, el catálogo se divide en fragmentos (por categoría o por hash del ISBN), cada uno en su propio
+ * archivo dentro de la carpeta libros. Al guardar solo se reescriben los fragmentos que cambiaron, y al iniciar
+ * los fragmentos se leen en paralelo. El criterio y la cantidad de fragmentos se guardan junto a ellos
+ * (libros/fragmentos.json): si se inicia con otra distribución, el catálogo se pasa primero a libros.json y luego
+ * se vuelve a dividir con la distribución nueva.
+ * <p>
+ * Las calificaciones de cada libro se guardan aparte, en la carpeta calificaciones (un archivo por libro), y se
+ * leen solo cuando se necesitan (cargarCalificaciones).
+ * <p>
+ * Opcionalmente (configurarFormato), los archivos JSON se escriben en formato compacto, y los archivos de datos y
+ * la bitacora se comprimen con GZIP. Al leer, la compresión se detecta en cada archivo.
+ *
+ * @author Programacion Avanzada.
+ */
+public final class RepositorioJson implements Repositorio {
+
+    /**
+     * Procesador de JSON (con espacios y saltos de línea, para ser leido por personas).
+     */
+    private static final Gson GSON = new GsonBuilder().setPrettyPrinting().create();
+
+    /**
+     * Procesador de JSON compacto (sin espacios ni saltos de línea).
+     */
+    private static final Gson GSON_COMPACTO = new Gson();
+
+    /**
+     * Cantidad de registros en la bitacora a partir de la cual se guardan los archivos completos.
+     */
+    private static final int LIMITE_BITACORA = 1000;
+
+    /**
+     * Archivo de los libros.
+     */
+    private static final String LIBROS = "libros.json";
+
+    /**
+     * Archivo de los socios.
+     */
+    private static final String SOCIOS = "socios.json";
+
+    /**
+     * Carpeta de los fragmentos del catálogo.
+     */
+    private static final String CARPETA_FRAGMENTOS = "libros";
+
+    /**
+     * Archivo con la distribución (criterio y cantidad) de los fragmentos guardados.
+     */
+    private static final String DISTRIBUCION = CARPETA_FRAGMENTOS + File.separator + "fragmentos.json";
+
+    /**
+     * Archivo de la copia binaria (inicio rápido).
+     */
+    private static final String SNAPSHOT = "bibliotech.snap";
+
+    /**
+     * Carpeta de las calificaciones (un archivo por libro).
+     */
+    private static final String CARPETA_CALIFICACIONES = "calificaciones";
+
+    /**
+     * Criterio para repartir los libros en fragmentos (null si el catálogo se guarda en un solo archivo).
+     */
+    private final CriterioFragmento criterio;
+
+    /**
+     * Cantidad de fragmentos del catálogo (1 si no se divide).
+     */
+    private final int cantidadFragmentos;
+
+    /**
+     * Bitacora de operaciones pendientes de guardar en los archivos completos.
+     */
+    private final Bitacora bitacora;
+
+    /**
+     * Los libros que se guardan en libros.json.
+     */
+    private final List<Libro> libros;
+
+    /**
+     * Los socios que se guardan en socios.json.
+     */
+    private final List<Socio> socios;
+
+    /**
+     * Los libros de cada fragmento.
+     */
+    private final List<List<Libro>> fragmentos;
+
+    /**
+     * Los libros por ISBN (para aplicar la bitacora).
+     */
+    private final Map<String, Libro> librosPorIsbn;
+
+    /**
+     * Los socios por numero (para aplicar la bitacora).
+     */
+    private final Map<Integer, Socio> sociosPorNumero;
+
+    /**
+     * Si los socios cambiaron desde el último guardado de socios.json.
+     */
+    private boolean sociosModificados;
+
+    /**
+     * Los fragmentos del catálogo que cambiaron desde su último guardado.
+     */
+    private final boolean[] fragmentosModificados;
+
+    /**
+     * Calificaciones registradas desde el último guardado, aún no escritas en sus archivos: ISBN -> (numero de
+     * socio -> estrellas).
+     */
+    private final Map<String, Map<Integer, Integer>> calificacionesPendientes;
+
+    /**
+     * Si el catálogo se debe pasar a fragmentos: el catálogo se divide y aún existe libros.json (que se borra
+     * solo despues de escribir todos los fragmentos, por lo que mientras exista es el que está al día).
+     */
+    private boolean migrarAFragmentos;
+
+    /**
+     * Si los archivos JSON se escriben en formato compacto.
+     */
+    private boolean compacto;
+
+    /**
+     * Si los archivos de datos (JSON y copia binaria) se comprimen con GZIP.
+     */
+    private boolean comprimirDatos;
+
+    /**
+     * Escritura diferida de la bitacora (null si cada operación se escribe de inmediato).
+     */
+    private EscrituraDiferida escrituraDiferida;
+
+    /**
+     * The Constructor: el catálogo se guarda en un solo archivo (libros.json).
+     */
+    public RepositorioJson() {
+        this(null, 1);
+    }
+
+    /**
+     * The Constructor: el catálogo se divide en fragmentos, dentro de la carpeta libros. Mientras exista
+     * libros.json, se lee desde ahí y se pasa a fragmentos (todos) en el primer guardado.
+     *
+     * @param criterio           para repartir los libros (null para no dividir el catálogo).
+     * @param cantidadFragmentos en que se divide el catálogo.
+     */
+    public RepositorioJson(final CriterioFragmento criterio, final int cantidadFragmentos) {
+        if (cantidadFragmentos <= 0) {
+            throw new IllegalArgumentException("La cantidad de fragmentos debe ser mayor a 0.");
+        }
+        this.criterio = criterio;
+        this.cantidadFragmentos = criterio == null ? 1 : cantidadFragmentos;
+        this.bitacora = new Bitacora("bitacora.log");
+        this.libros = new ArrayList<>();
+        this.socios = new ArrayList<>();
+        this.fragmentos = new ArrayList<>();
+        this.fragmentosModificados = new boolean[this.cantidadFragmentos];
+        this.librosPorIsbn = new HashMap<>();
+        this.sociosPorNumero = new HashMap<>();
+        this.calificacionesPendientes = new HashMap<>();
+    }
+
+    /**
+     * Método cargar:
+     * Carga los libros y socios desde la copia binaria si está al día, o desde los archivos JSON. Luego aplica
+     * la bitacora y, si hubo cambios, guarda los archivos. Por último deja la copia binaria para el siguiente inicio.
+     *
+     * @param progreso que recibe el avance de la carga.
+     * @return los libros y socios.
+     * @throws IOException en caso de algun error.
+     */
+    @Override
+    public Datos cargar(final ProgresoCarga progreso) throws IOException {
+        this.libros.clear();
+        this.socios.clear();
+        // Se decide según los archivos, sin importar si se carga desde la copia binaria o desde los JSON.
+        this.migrarAFragmentos = this.criterio != null && Files.exists(Paths.get(LIBROS));
+
+        try {
+            // Una copia binaria de otra version del formato se ignora (y se reemplaza al final). Si los archivos
+            // tienen otra distribución, se leen igual desde los JSON (para cambiarla).
+            Datos datos = this.distribucionVigente() && this.snapshotVigente() ? SnapshotBinario.leer(SNAPSHOT) : null;
+            if (datos != null) {
+                this.libros.addAll(List.of(datos.getLibros()));
+                this.socios.addAll(List.of(datos.getSocios()));
+            } else {
+                SnapshotBinario.eliminar(SNAPSHOT);
+                this.cargarInformacion(progreso);
+            }
+        } catch (FileNotFoundException ex) {
+            // No hay datos guardados.
+            this.libros.clear();
+            this.socios.clear();
+        }
+
+        this.librosPorIsbn.clear();
+        this.fragmentos.clear();
+        for (int i = 0; i < this.cantidadFragmentos; i++) {
+            this.fragmentos.add(new ArrayList<>());
+        }
+        for (Libro libro : this.libros) {
+            this.librosPorIsbn.put(libro.getIsbn(), libro);
+            this.fragmentos.get(this.fragmento(libro)).add(libro);
+        }
+        if (this.migrarAFragmentos) {
+            Arrays.fill(this.fragmentosModificados, true);
+        }
+        this.sociosPorNumero.clear();
+        for (Socio socio : this.socios) {
+            this.sociosPorNumero.put(socio.getNumeroDeSocio(), socio);
+        }
+
+        // Se aplican las operaciones registradas desde el último guardado, y solo si hubo cambios se guarda la información.
+        this.reproducirBitacora();
+        this.conciliarPrestamos();
+        if (this.sociosModificados || this.hayFragmentosModificados() || !this.calificacionesPendientes.isEmpty()) {
+            this.guardarInformacion();
+        }
+
+        // Se deja la copia binaria (al día con los archivos) para el siguiente inicio.
+        if (!SnapshotBinario.existe(SNAPSHOT)) {
+            SnapshotBinario.escribir(SNAPSHOT, this.libros.toArray(new Libro[0]), this.socios.toArray(new Socio[0]),
+                    this.comprimirDatos);
+        }
+
+        return new Datos(this.libros.toArray(new Libro[0]), this.socios.toArray(new Socio[0]));
+    }
+
+    /**
+     * Método activarEscrituraDiferida:
+     * A partir de ahora las operaciones no esperan la escritura de la bitacora: un hilo en segundo plano escribe
+     * juntas todas las operaciones acumuladas, cuando se junta el lote máximo o se cumple la latencia máxima.
+     * Ante una caída, se pueden perder a lo más las operaciones de la última ventana de latencia.
+     *
+     * @param maxLatenciaMs máxima (en milisegundos) antes de escribir una operación.
+     * @param maxLote       cantidad de operaciones que provoca la escritura inmediata.
+     * @throws IOException en caso de algun error al cerrar una escritura diferida anterior.
+     */
+    public void activarEscrituraDiferida(final long maxLatenciaMs, final int maxLote) throws IOException {
+        if (this.escrituraDiferida != null) {
+            this.escrituraDiferida.close();
+        }
+        this.escrituraDiferida = new EscrituraDiferida(maxLatenciaMs, maxLote, this.bitacora::escribirPendientes);
+    }
+
+    /**
+     * Método configurarFormato:
+     * Define como se escriben los archivos a partir de ahora (los archivos existentes se leen en cualquier formato).
+     * El formato compacto y la compresión reducen los bytes escritos y leidos en cada guardado e inicio.
+     *
+     * @param compacto          si los archivos JSON se escriben sin espacios ni saltos de línea.
+     * @param comprimirDatos    si los archivos de datos (JSON y copia binaria) se comprimen con GZIP.
+     * @param comprimirBitacora si la bitacora se comprime con GZIP (un bloque por cada escritura).
+     */
+    public void configurarFormato(final boolean compacto, final boolean comprimirDatos, final boolean comprimirBitacora) {
+        this.compacto = compacto;
+        this.comprimirDatos = comprimirDatos;
+        this.bitacora.setComprimir(comprimirBitacora);
+    }
+
+    /**
+     * Método cargarCalificaciones:
+     * Lee el archivo de calificaciones del libro, junto con las calificaciones aún pendientes de guardar.
+     *
+     * @param libro del que se leen las calificaciones.
+     * @return las calificaciones del libro (vacío si no tiene).
+     * @throws IOException en caso de algun error.
+     */
+    @Override
+    public synchronized Calificacion[] cargarCalificaciones(final Libro libro) throws IOException {
+        Map<Integer, Integer> calificaciones = leerCalificaciones(libro.getIsbn());
+        Map<Integer, Integer> pendientes = this.calificacionesPendientes.get(libro.getIsbn());
+        if (pendientes != null) {
+            calificaciones.putAll(pendientes);
+        }
+        return aCalificaciones(calificaciones);
+    }
+
+    @Override
+    public void guardarNuevoLibro(final Libro libro) throws IOException {
+        synchronized (this) {
+            this.libros.add(libro);
+            this.librosPorIsbn.put(libro.getIsbn(), libro);
+            this.fragmentos.get(this.fragmento(libro)).add(libro);
+        }
+        this.registrar(Bitacora.Registro.deNuevoLibro(libro));
+    }
+
+    @Override
+    public void guardarNuevoSocio(final Socio socio) throws IOException {
+        synchronized (this) {
+            this.socios.add(socio);
+            this.sociosPorNumero.put(socio.getNumeroDeSocio(), socio);
+        }
+        this.registrar(Bitacora.Registro.deSocio(Bitacora.Tipo.NUEVO_SOCIO, socio));
+    }
+
+    @Override
+    public void guardarPrestamo(final Socio socio, final Libro libro) throws IOException {
+        this.registrar(Bitacora.Registro.deLibro(Bitacora.Tipo.PRESTAMO, socio.getNumeroDeSocio(), libro.getIsbn()));
+    }
+
+    @Override
+    public void guardarDevolucion(final Socio socio, final Libro libro) throws IOException {
+        this.registrar(Bitacora.Registro.deLibro(Bitacora.Tipo.DEVOLUCION, socio.getNumeroDeSocio(), libro.getIsbn()));
+    }
+
+    @Override
+    public void guardarCalificacion(final Libro libro, final Socio socio, final int estrellas) throws IOException {
+        Integer anterior;
+        synchronized (this) {
+            anterior = this.agregarCalificacionPendiente(libro.getIsbn(), socio.getNumeroDeSocio(), estrellas);
+        }
+        try {
+            this.registrar(Bitacora.Registro.deCalificacion(socio.getNumeroDeSocio(), libro.getIsbn(), estrellas,
+                    libro.getSumaEstrellas(), libro.getCantidadVotos()));
+        } catch (IOException | RuntimeException ex) {
+            // La calificación no quedó registrada: la pendiente vuelve a ser la anterior.
+            synchronized (this) {
+                this.quitarCalificacionPendiente(libro.getIsbn(), socio.getNumeroDeSocio(), anterior);
+            }
+            throw ex;
+        }
+    }
+
+    @Override
+    public void guardarPerfil(final Socio socio) throws IOException {
+        this.registrar(Bitacora.Registro.deSocio(Bitacora.Tipo.PERFIL, socio));
+    }
+
+    /**
+     * Método sincronizar:
+     * Escribe de inmediato las operaciones pendientes de la escritura diferida (si está activa).
+     *
+     * @throws IOException en caso de algun error.
+     */
+    @Override
+    public void sincronizar() throws IOException {
+        if (this.escrituraDiferida != null) {
+            this.escrituraDiferida.sincronizar();
+        }
+    }
+
+    /**
+     * Método close:
+     * Detiene la escritura diferida (si está activa), escribiendo las operaciones pendientes.
+     *
+     * @throws IOException en caso de algun error.
+     */
+    @Override
+    public void close() throws IOException {
+        if (this.escrituraDiferida != null) {
+            this.escrituraDiferida.close();
+            this.escrituraDiferida = null;
+        }
+    }
+
+    /**
+     * Lee los archivos libros.json (o los fragmentos del catálogo) y socios.json, registro por registro.
+     * Los préstamos de cada socio se enlazan con las instancias de libros cargadas.
+     *
+     * @param progreso que recibe el avance de la carga.
+     * @throws FileNotFoundException si alguno de los archivos no se encuentra.
+     * @throws IOException           en caso de algun otro error.
+     */
+    private void cargarInformacion(final ProgresoCarga progreso) throws IOException {
+        // Se trata de leer los libros y socios desde el archivo.
+        CargadorJson.leer(GSON, SOCIOS, Socio.class, this.socios::add, progreso);
+        boolean hayFragmentos = Files.isDirectory(Paths.get(CARPETA_FRAGMENTOS));
+        if (Files.exists(Paths.get(LIBROS)) || !hayFragmentos) {
+            CargadorJson.leer(GSON, LIBROS, Libro.class, this.libros::add, progreso);
+            if (this.criterio == null && hayFragmentos) {
+                // Restos de un cambio de distribución interrumpido (libros.json ya está al día).
+                eliminarFragmentos();
+            }
+        } else {
+            Distribucion guardada = leerDistribucion();
+            this.cargarFragmentos(guardada == null ? archivosFragmentos() : archivosFragmentos(guardada), progreso);
+
+            // Otra distribución: el catálogo se pasa primero a libros.json, para que ante una caída siempre quede
+            // completo en algún lado, y despues se vuelve a dividir (como al pasar de libros.json a fragmentos).
+            if (this.criterio == null || !this.distribucion().equals(guardada)) {
+                guardarJson(LIBROS, this.libros.toArray(new Libro[0]));
+                eliminarFragmentos();
+                this.migrarAFragmentos = this.criterio != null;
+            }
+        }
+
+        // Los socios guardan solo el ISBN de sus préstamos: se enlazan con los libros recién cargados.
+        Map<String, Libro> porIsbn = new HashMap<>(this.libros.size() * 2);
+        for (Libro libro : this.libros) {
+            porIsbn.put(libro.getIsbn(), libro);
+        }
+        for (Socio socio : this.socios) {
+            socio.vincularPrestamos(porIsbn::get);
+        }
+    }
+
+    /**
+     * Método cargarFragmentos: lee en paralelo los archivos de los fragmentos del catálogo, y los agrega en orden.
+     * Un fragmento sin archivo se considera vacío, y un libro repetido en dos fragmentos se agrega una sola vez.
+     *
+     * @param archivos de los fragmentos.
+     * @param progreso que recibe el avance de la carga (puede ser llamado desde varios hilos).
+     * @throws IOException en caso de algun error.
+     */
+    private void cargarFragmentos(final List<String> archivos, final ProgresoCarga progreso) throws IOException {
+        int hilos = Math.max(1, Math.min(archivos.size(), Runtime.getRuntime().availableProcessors()));
+        ExecutorService executor = Executors.newFixedThreadPool(hilos);
+        try {
+            List<Future<List<Libro>>> lecturas = new ArrayList<>();
+            for (String archivo : archivos) {
+                lecturas.add(executor.submit(() -> {
+                    List<Libro> fragmento = new ArrayList<>();
+                    if (Files.exists(Paths.get(archivo))) {
+                        CargadorJson.leer(GSON, archivo, Libro.class, fragmento::add, progreso);
+                    }
+                    return fragmento;
+                }));
+            }
+            Set<String> isbns = new HashSet<>();
+            for (Future<List<Libro>> lectura : lecturas) {
+                for (Libro libro : lectura.get()) {
+                    if (isbns.add(libro.getIsbn())) {
+                        this.libros.add(libro);
+                    }
+                }
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Carga de fragmentos interrumpida.", ex);
+        } catch (ExecutionException ex) {
+            if (ex.getCause() instanceof IOException) {
+                throw (IOException) ex.getCause();
+            }
+            throw new IOException("No se pudo cargar un fragmento.", ex.getCause());
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    /**
+     * Método archivoFragmento.
+     *
+     * @param fragmento del catálogo.
+     * @return el archivo donde se guarda el fragmento (libros.json si el catálogo no se divide).
+     */
+    private String archivoFragmento(final int fragmento) {
+        return this.criterio == null ? LIBROS : archivoEnCarpeta(fragmento);
+    }
+
+    /**
+     * Método archivoEnCarpeta.
+     *
+     * @param fragmento del catálogo.
+     * @return el archivo del fragmento dentro de la carpeta libros.
+     */
+    private static String archivoEnCarpeta(final int fragmento) {
+        return CARPETA_FRAGMENTOS + File.separator + String.format("fragmento-%03d.json", fragmento);
+    }
+
+    /**
+     * Método archivosFragmentos.
+     *
+     * @param distribucion de los fragmentos guardados.
+     * @return los archivos de los fragmentos de la distribución.
+     */
+    private static List<String> archivosFragmentos(final Distribucion distribucion) {
+        List<String> archivos = new ArrayList<>(distribucion.cantidad());
+        for (int i = 0; i < distribucion.cantidad(); i++) {
+            archivos.add(archivoEnCarpeta(i));
+        }
+        return archivos;
+    }
+
+    /**
+     * Método archivosFragmentos.
+     *
+     * @return todos los archivos de fragmentos que existen en la carpeta libros, en orden (para cuando no se
+     * conoce su distribución).
+     */
+    private static List<String> archivosFragmentos() {
+        List<String> archivos = new ArrayList<>();
+        File[] existentes = new File(CARPETA_FRAGMENTOS)
+                .listFiles((carpeta, nombre) -> nombre.matches("fragmento-\\d+\\.json"));
+        if (existentes != null) {
+            for (File archivo : existentes) {
+                archivos.add(archivo.getPath());
+            }
+        }
+        Collections.sort(archivos);
+        return archivos;
+    }
+
+    /**
+     * Método eliminarFragmentos: borra la carpeta libros, con todos sus archivos.
+     *
+     * @throws IOException en caso de algun error.
+     */
+    private static void eliminarFragmentos() throws IOException {
+        File[] archivos = new File(CARPETA_FRAGMENTOS).listFiles();
+        if (archivos != null) {
+            for (File archivo : archivos) {
+                Files.deleteIfExists(archivo.toPath());
+            }
+        }
+        Files.deleteIfExists(Paths.get(CARPETA_FRAGMENTOS));
+    }
+
+    /**
+     * Método eliminarFragmentosSobrantes: borra los archivos de fragmentos que no pertenecen a la distribución actual.
+     *
+     * @throws IOException en caso de algun error.
+     */
+    private void eliminarFragmentosSobrantes() throws IOException {
+        List<String> actuales = archivosFragmentos(this.distribucion());
+        for (String archivo : archivosFragmentos()) {
+            if (!actuales.contains(archivo)) {
+                Files.deleteIfExists(Paths.get(archivo));
+            }
+        }
+    }
+
+    /**
+     * @return la distribución de los fragmentos con que se inició el repositorio (null si el catálogo no se divide).
+     */
+    private Distribucion distribucion() {
+        return this.criterio == null ? null : new Distribucion(this.criterio, this.cantidadFragmentos);
+    }
+
+    /**
+     * Método leerDistribucion.
+     *
+     * @return la distribución de los fragmentos guardados, o null si no está registrada.
+     * @throws IOException en caso de algun error.
+     */
+    private static Distribucion leerDistribucion() throws IOException {
+        Path archivo = Paths.get(DISTRIBUCION);
+        if (!Files.exists(archivo)) {
+            return null;
+        }
+        return GSON.fromJson(Files.readString(archivo, StandardCharsets.UTF_8), Distribucion.class);
+    }
+
+    /**
+     * Método distribucionVigente.
+     *
+     * @return true si los libros se leen desde los archivos sin cambiar su distribución: desde libros.json (que si
+     * el catálogo se divide, se pasa a fragmentos en el primer guardado), o desde fragmentos de la misma distribución.
+     */
+    private boolean distribucionVigente() {
+        boolean hayFragmentos = Files.isDirectory(Paths.get(CARPETA_FRAGMENTOS));
+        if (Files.exists(Paths.get(LIBROS))) {
+            return this.criterio != null || !hayFragmentos;
+        }
+        if (this.criterio == null) {
+            return !hayFragmentos;
+        }
+        try {
+            return this.distribucion().equals(leerDistribucion());
+        } catch (IOException | RuntimeException ex) {
+            return false;
+        }
+    }
+
+    /**
+     * Método fragmento.
+     *
+     * @param libro a ubicar.
+     * @return el fragmento al que pertenece el libro (0 si el catálogo no se divide).
+     */
+    private int fragmento(final Libro libro) {
+        return this.criterio == null ? 0 : this.criterio.fragmento(libro, this.cantidadFragmentos);
+    }
+
+    /**
+     * @return true si algún fragmento del catálogo cambió desde su último guardado.
+     */
+    private boolean hayFragmentosModificados() {
+        for (boolean modificado : this.fragmentosModificados) {
+            if (modificado) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Método snapshotVigente.
+     *
+     * @return true si existe la copia binaria y no es más antigua que ninguno de los archivos de libros (libros.json
+     * y todos los archivos de la carpeta libros) ni socios.json (por ejemplo, porque se editaron a mano).
+     */
+    private boolean snapshotVigente() {
+        File snapshot = new File(SNAPSHOT);
+        if (!snapshot.exists()) {
+            return false;
+        }
+        // Un archivo que no existe tiene fecha 0, por lo que no cuenta.
+        long masReciente = Math.max(new File(LIBROS).lastModified(), new File(SOCIOS).lastModified());
+        File[] fragmentos = new File(CARPETA_FRAGMENTOS).listFiles();
+        if (fragmentos != null) {
+            for (File fragmento : fragmentos) {
+                masReciente = Math.max(masReciente, fragmento.lastModified());
+            }
+        }
+        return snapshot.lastModified() >= masReciente;
+    }
+
+    /**
+     * Guarda los libros (libros.json o cada fragmento) y socios en socios.json, solo los que cambiaron.
+     * Cada archivo se reemplaza de forma atómica (todo o nada).
+     * Como los archivos quedan al día, la copia binaria queda desactualizada (se borra) y la bitacora se vacía.
+     *
+     * @throws IOException en caso de algun error.
+     */
+    private void guardarInformacion() throws IOException {
+        // Se guardan los socios.
+        if (this.sociosModificados) {
+            guardarJson(SOCIOS, this.socios.toArray(new Socio[0]));
+            this.sociosModificados = false;
+        }
+
+        // Se guardan los libros, solo los fragmentos que cambiaron.
+        if (this.criterio != null) {
+            Files.createDirectories(Paths.get(CARPETA_FRAGMENTOS));
+        }
+        for (int i = 0; i < this.cantidadFragmentos; i++) {
+            if (this.fragmentosModificados[i]) {
+                guardarJson(this.archivoFragmento(i), this.fragmentos.get(i).toArray(new Libro[0]));
+                this.fragmentosModificados[i] = false;
+            }
+        }
+
+        // Se guardan las calificaciones, solo las de los libros que cambiaron.
+        this.guardarCalificaciones();
+
+        // El catálogo ya quedó en fragmentos (todos, porque al migrar se marcan todos como modificados): se borran
+        // los de otra distribución, se registra la distribución, y recién entonces se borra libros.json.
+        if (this.migrarAFragmentos && !this.hayFragmentosModificados()) {
+            this.eliminarFragmentosSobrantes();
+            this.guardarDistribucion();
+            Files.deleteIfExists(Paths.get(LIBROS));
+            this.migrarAFragmentos = false;
+        }
+
+        // La copia binaria ya no corresponde a los archivos.
+        SnapshotBinario.eliminar(SNAPSHOT);
+
+        // Las operaciones de la bitacora ya están en los archivos.
+        this.bitacora.truncar();
+    }
+
+    /**
+     * Método guardarCalificaciones: agrega las calificaciones pendientes al archivo de cada libro calificado.
+     *
+     * @throws IOException en caso de algun error.
+     */
+    private void guardarCalificaciones() throws IOException {
+        if (this.calificacionesPendientes.isEmpty()) {
+            return;
+        }
+        Files.createDirectories(Paths.get(CARPETA_CALIFICACIONES));
+        for (Map.Entry<String, Map<Integer, Integer>> pendientes : this.calificacionesPendientes.entrySet()) {
+            Map<Integer, Integer> calificaciones = leerCalificaciones(pendientes.getKey());
+            calificaciones.putAll(pendientes.getValue());
+            guardarJson(archivoCalificaciones(pendientes.getKey()), aCalificaciones(calificaciones));
+        }
+        this.calificacionesPendientes.clear();
+    }
+
+    /**
+     * Método agregarCalificacionPendiente: registra una calificación que aún no se escribe en su archivo.
+     *
+     * @param isbn          del libro calificado.
+     * @param numeroDeSocio que califica.
+     * @param estrellas     de la calificación.
+     * @return las estrellas de la calificación pendiente que reemplaza, o null si no había.
+     */
+    private Integer agregarCalificacionPendiente(final String isbn, final int numeroDeSocio, final int estrellas) {
+        return this.calificacionesPendientes.computeIfAbsent(isbn, k -> new LinkedHashMap<>())
+                .put(numeroDeSocio, estrellas);
+    }
+
+    /**
+     * Método quitarCalificacionPendiente: deja la calificación pendiente del socio como estaba antes de
+     * agregarCalificacionPendiente.
+     *
+     * @param isbn          del libro calificado.
+     * @param numeroDeSocio que califica.
+     * @param anterior      lo que retornó agregarCalificacionPendiente (null si no había).
+     */
+    private void quitarCalificacionPendiente(final String isbn, final int numeroDeSocio, final Integer anterior) {
+        Map<Integer, Integer> pendientes = this.calificacionesPendientes.get(isbn);
+        if (pendientes == null) {
+            // Ya se guardaron en el archivo del libro.
+            return;
+        }
+        if (anterior != null) {
+            pendientes.put(numeroDeSocio, anterior);
+            return;
+        }
+        pendientes.remove(numeroDeSocio);
+        if (pendientes.isEmpty()) {
+            this.calificacionesPendientes.remove(isbn);
+        }
+    }
+
+    /**
+     * Método leerCalificaciones: lee el archivo de calificaciones de un libro.
+     *
+     * @param isbn del libro.
+     * @return numero de socio -> estrellas, en el orden del archivo (vacío si el libro no tiene calificaciones).
+     * @throws IOException en caso de algun error.
+     */
+    private static Map<Integer, Integer> leerCalificaciones(final String isbn) throws IOException {
+        Map<Integer, Integer> calificaciones = new LinkedHashMap<>();
+        String archivo = archivoCalificaciones(isbn);
+        if (Files.exists(Paths.get(archivo))) {
+            CargadorJson.leer(GSON, archivo, Calificacion.class,
+                    c -> calificaciones.put(c.getNumeroDeSocio(), c.getEstrellas()), ProgresoCarga.NINGUNO);
+        }
+        return calificaciones;
+    }
+
+    /**
+     * Método aCalificaciones.
+     *
+     * @param calificaciones numero de socio -> estrellas.
+     * @return el arreglo de calificaciones, en el mismo orden.
+     */
+    private static Calificacion[] aCalificaciones(final Map<Integer, Integer> calificaciones) {
+        Calificacion[] arreglo = new Calificacion[calificaciones.size()];
+        int i = 0;
+        for (Map.Entry<Integer, Integer> calificacion : calificaciones.entrySet()) {
+            arreglo[i++] = new Calificacion(calificacion.getValue(), calificacion.getKey());
+        }
+        return arreglo;
+    }
+
+    /**
+     * Método archivoCalificaciones.
+     *
+     * @param isbn del libro.
+     * @return el archivo con las calificaciones del libro (los caracteres no validos del ISBN se reemplazan por _).
+     */
+    private static String archivoCalificaciones(final String isbn) {
+        return CARPETA_CALIFICACIONES + File.separator + isbn.replaceAll("[^A-Za-z0-9-]", "_") + ".json";
+    }
+
+    /**
+     * Método guardarJson: reemplaza de forma atómica el archivo con el arreglo en formato JSON (compacto y/o
+     * comprimido, según el formato configurado).
+     *
+     * @param archivo a reemplazar.
+     * @param datos   a guardar.
+     * @throws IOException en caso de algun error.
+     */
+    private void guardarJson(final String archivo, final Object[] datos) throws IOException {
+        ArchivoAtomico.escribir(archivo, channel -> {
+            OutputStream salida = Channels.newOutputStream(channel);
+            GZIPOutputStream gzip = this.comprimirDatos ? Compresion.comprimir(salida) : null;
+            Writer writer = new BufferedWriter(new OutputStreamWriter(gzip == null ? salida : gzip, StandardCharsets.UTF_8));
+            (this.compacto ? GSON_COMPACTO : GSON).toJson(datos, writer);
+            writer.flush();
+            if (gzip != null) {
+                // Se termina el bloque GZIP sin cerrar el canal (se fuerza al disco despues).
+                gzip.finish();
+            }
+        });
+    }
+
+    /**
+     * Método guardarDistribucion: registra (de forma atómica) el criterio y la cantidad de los fragmentos.
+     *
+     * @throws IOException en caso de algun error.
+     */
+    private void guardarDistribucion() throws IOException {
+        ArchivoAtomico.escribir(DISTRIBUCION, channel -> {
+            Writer writer = new OutputStreamWriter(Channels.newOutputStream(channel), StandardCharsets.UTF_8);
+            GSON.toJson(this.distribucion(), writer);
+            writer.flush();
+        });
+    }
+
+    /**
+     * Método marcarModificados: registra que archivos cambian con la operación (socios.json y/o el fragmento
+     * del libro), para guardar solo esos archivos. Las calificaciones se registran aparte, como pendientes, y
+     * además cambian los totales (suma de estrellas y votos) guardados en el fragmento del libro.
+     *
+     * @param registro de la operación.
+     */
+    private void marcarModificados(final Bitacora.Registro registro) {
+        switch (registro.getTipo()) {
+            case PRESTAMO, DEVOLUCION -> {
+                this.sociosModificados = true;
+                this.marcarFragmento(this.librosPorIsbn.get(registro.getIsbn()));
+            }
+            case CALIFICACION -> this.marcarFragmento(this.librosPorIsbn.get(registro.getIsbn()));
+            case NUEVO_LIBRO -> this.marcarFragmento(registro.getDatosLibro());
+            default -> this.sociosModificados = true;
+        }
+    }
+
+    /**
+     * Método marcarFragmento: registra que el fragmento del libro cambió.
+     *
+     * @param libro modificado (si es null, no se marca nada).
+     */
+    private void marcarFragmento(final Libro libro) {
+        if (libro != null) {
+            this.fragmentosModificados[this.fragmento(libro)] = true;
+        }
+    }
+
+    /**
+     * Método registrar:
+     * Agrega la operación (ya aplicada en memoria) al final de la bitacora, en vez de reescribir los archivos completos.
+     * Con escritura diferida, solo se marca como pendiente y la escribe el hilo en segundo plano.
+     * Si la operación falla (no se pudo escribir, o la escritura diferida informa un error), su registro se
+     * descarta: quien la llama la deshace en memoria, y no debe quedar en la bitacora.
+     * Cuando la bitacora alcanza el limite de registros, se guarda la información completa y se vacía.
+     * <p>
+     * El candado del repositorio solo se usa para marcar los archivos modificados y agregar el registro: la
+     * escritura y el fsync se hacen sin él (la bitacora agrupa en una sola escritura los registros de las
+     * operaciones que esperan al mismo tiempo). El guardado de la información completa sí usa el candado, y antes
+     * escribe los registros pendientes.
+     *
+     * @param registro de la operación.
+     * @throws IOException en caso de algun error (la operación no queda registrada).
+     */
+    private void registrar(final Bitacora.Registro registro) throws IOException {
+        long numero;
+        synchronized (this) {
+            this.marcarModificados(registro);
+            numero = this.bitacora.agregar(registro);
+        }
+
+        try {
+            if (this.escrituraDiferida != null) {
+                this.escrituraDiferida.marcar();
+            } else {
+                this.bitacora.escribirHasta(numero);
+            }
+        } catch (IOException | RuntimeException ex) {
+            this.bitacora.descartar(numero);
+            throw ex;
+        }
+
+        if (this.bitacora.getCantidadRegistros() >= LIMITE_BITACORA) {
+            synchronized (this) {
+                if (this.bitacora.getCantidadRegistros() >= LIMITE_BITACORA) {
+                    this.bitacora.escribirPendientes();
+                    this.guardarInformacion();
+                }
+            }
+        }
+    }
+
+    /**
+     * Método reproducirBitacora:
+     * Vuelve a aplicar, en orden, las operaciones registradas en la bitacora sobre la información cargada.
+     * Las operaciones que ya no se pueden aplicar (socio o libro inexistente) se ignoran.
+     *
+     * @return la cantidad de registros leidos desde la bitacora.
+     * @throws IOException en caso de algun error.
+     */
+    private int reproducirBitacora() throws IOException {
+        List<Bitacora.Registro> registros = this.bitacora.leer();
+        for (Bitacora.Registro registro : registros) {
+            this.marcarModificados(registro);
+            try {
+                this.aplicar(registro);
+            } catch (IllegalArgumentException ex) {
+                // La operación no es aplicable sobre los datos actuales.
+            }
+        }
+        return registros.size();
+    }
+
+    /**
+     * Método conciliarPrestamos:
+     * Deja cada libro prestado si y solo si algún socio lo tiene en préstamo. Los préstamos y devoluciones de socios
+     * distintos se registran en la bitacora desde hilos distintos, por lo que la devolución de un libro puede quedar
+     * registrada despues del préstamo siguiente del mismo libro; los préstamos de cada socio sí quedan en orden.
+     */
+    private void conciliarPrestamos() {
+        Set<Libro> prestados = Collections.newSetFromMap(new IdentityHashMap<>());
+        for (Socio socio : this.socios) {
+            prestados.addAll(Arrays.asList(socio.getLibrosEnPrestamo()));
+        }
+        for (Libro libro : this.libros) {
+            boolean prestado = prestados.contains(libro);
+            if (libro.getPrestado() != prestado) {
+                libro.setPrestado(prestado);
+                this.marcarFragmento(libro);
+            }
+        }
+    }
+
+    /**
+     * Método aplicar:
+     * Aplica una operación de la bitacora sobre el socio y el libro correspondientes.
+     * Todas las operaciones dejan un estado final (el libro queda prestado o no, el valor queda asignado), por
+     * lo que se pueden volver a aplicar sobre archivos que ya las incluyen (por ejemplo, si hubo una caída
+     * después de guardar libros.json pero antes de vaciar la bitacora) sin cambiar el resultado.
+     *
+     * @param registro a aplicar.
+     */
+    private void aplicar(final Bitacora.Registro registro) {
+        switch (registro.getTipo()) {
+            case NUEVO_LIBRO -> {
+                Libro libro = registro.getDatosLibro();
+                if (!this.librosPorIsbn.containsKey(libro.getIsbn())) {
+                    this.libros.add(libro);
+                    this.librosPorIsbn.put(libro.getIsbn(), libro);
+                    this.fragmentos.get(this.fragmento(libro)).add(libro);
+                }
+                return;
+            }
+            case NUEVO_SOCIO -> {
+                Socio socio = registro.getDatosSocio();
+                if (!this.sociosPorNumero.containsKey(socio.getNumeroDeSocio())) {
+                    socio.vincularPrestamos(this.librosPorIsbn::get);
+                    this.socios.add(socio);
+                    this.sociosPorNumero.put(socio.getNumeroDeSocio(), socio);
+                }
+                return;
+            }
+            default -> {
+                // Operaciones de un socio existente.
+            }
+        }
+
+        Socio socio = this.sociosPorNumero.get(registro.getSocio());
+        if (socio == null) {
+            throw new IllegalArgumentException("Socio " + registro.getSocio() + " no existe.");
+        }
+
+        if (registro.getTipo() == Bitacora.Tipo.PERFIL) {
+            Socio datos = registro.getDatosSocio();
+            socio.cambioDeNombre(datos.getNombre());
+            socio.cambioDeApellido(datos.getApellido());
+            socio.cambioDeCorreo(datos.getCorreoElectronico());
+            socio.cambioDeContrasenia(datos.getContrasenia());
+            return;
+        }
+
+        Libro libro = this.librosPorIsbn.get(registro.getIsbn());
+        if (libro == null) {
+            throw new IllegalArgumentException("Libro con isbn " + registro.getIsbn() + " no existe.");
+        }
+        switch (registro.getTipo()) {
+            case PRESTAMO -> {
+                if (!socio.tieneLibro(libro)) {
+                    socio.agregarLibro(libro);
+                }
+                libro.setPrestado(true);
+            }
+            case DEVOLUCION -> {
+                if (socio.tieneLibro(libro)) {
+                    socio.devolverLibro(libro);
+                }
+                libro.setPrestado(false);
+            }
+            default -> {
+                this.agregarCalificacionPendiente(libro.getIsbn(), socio.getNumeroDeSocio(), registro.getEstrellas());
+                if (registro.getCantidadVotos() > 0) {
+                    libro.restaurarTotales(registro.getSumaEstrellas(), registro.getCantidadVotos());
+                }
+            }
+        }
+    }
+
+    /**
+     * Distribución de los fragmentos del catálogo (se guarda en libros/fragmentos.json).
+     *
+     * @param criterio para repartir los libros.
+     * @param cantidad de fragmentos.
+     */
+    private record Distribucion(CriterioFragmento criterio, int cantidad) {
+    }
+}
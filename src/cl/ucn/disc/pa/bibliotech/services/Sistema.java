@@ -4,191 +4,440 @@
 
 package cl.ucn.disc.pa.bibliotech.services;
 
+import cl.ucn.disc.pa.bibliotech.model.ConflictoDeVersionException;
+import cl.ucn.disc.pa.bibliotech.model.FacetaCategoria;
 import cl.ucn.disc.pa.bibliotech.model.Libro;
+import cl.ucn.disc.pa.bibliotech.model.PaginaCatalogo;
 import cl.ucn.disc.pa.bibliotech.model.Socio;
-import com.google.gson.Gson;
-import com.google.gson.GsonBuilder;
+import cl.ucn.disc.pa.bibliotech.model.VistaLibro;
 
-import java.io.FileNotFoundException;
-import java.io.FileReader;
-import java.io.FileWriter;
 import java.io.IOException;
+import java.security.SecureRandom;
+import java.util.ArrayDeque;
+import java.util.Base64;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * The Sistema.
+ * <p>
+ * Varios socios pueden tener una sesión abierta a la vez: iniciarSession entrega un token de sesión (un texto
+ * aleatorio, imposible de adivinar), y todas las operaciones de un socio reciben ese token para saber sobre qué
+ * socio actúan. Las sesiones se guardan en un registro concurrente (ConcurrentHashMap).
+ * <p>
+ * Una sesión que no se usa durante DURACION_INACTIVIDAD expira (se revisa al usarla, y las expiradas se descartan
+ * de vez en cuando al abrir sesiones), y un socio puede tener a lo más MAXIMO_SESIONES_SOCIO sesiones abiertas: al
+ * abrir una más, se cierra la más antigua. Así el registro de sesiones no crece sin limite.
+ * <p>
+ * Los préstamos y devoluciones se pueden hacer desde varios hilos a la vez, sin un candado global: el libro se
+ * toma con una operación atómica (Libro.reservar), de modo que dos préstamos del mismo libro no pueden tener éxito
+ * ambos, y los cambios de cada socio (su limite de libros, su listado y el registro en el repositorio) se hacen
+ * con el candado del propio socio. Las calificaciones de un libro se cambian con el candado del libro. Las
+ * lecturas del catálogo usan instantáneas inmutables (ver Catalogo), por lo que no esperan a los préstamos.
+ * <p>
+ * El perfil de un socio y las calificaciones de un libro tienen versiones: actualizarPerfil y calificarLibro con
+ * una versión esperada fallan de inmediato (ConflictoDeVersionException) si otra sesión hizo un cambio entre
+ * medio, en vez de sobreescribirlo.
  *
  * @author Programacion Avanzada.
  */
 public final class Sistema {
 
     /**
-     * Procesador de JSON.
+     * Cantidad maxima de libros con sus calificaciones cargadas en memoria.
      */
-    private static final Gson GSON = new GsonBuilder().setPrettyPrinting().create();
+    private static final int CAPACIDAD_CALIFICACIONES = 1024;
 
     /**
-     * The list of Socios.
+     * Presupuesto de memoria (en bytes) de los listados de préstamos guardados.
      */
-    private Socio[] socios;
+    private static final long PRESUPUESTO_LISTADOS = 1024L * 1024;
 
     /**
-     * The list of Libros.
+     * Cantidad minima de calificaciones para que un libro aparezca entre los mejor calificados.
      */
-    private Libro[] libros;
+    private static final int MINIMO_VOTOS_RANKING = 2;
 
     /**
-     * Socio en el sistema.
+     * Cantidad de bytes aleatorios de un token de sesión.
      */
-    private Socio socio;
+    private static final int BYTES_TOKEN = 24;
 
     /**
-     * The Sistema.
+     * Tiempo (en nanosegundos) sin usar una sesión tras el cual expira.
+     */
+    private static final long DURACION_INACTIVIDAD = TimeUnit.MINUTES.toNanos(30);
+
+    /**
+     * Cantidad maxima de sesiones abiertas de un socio.
+     */
+    private static final int MAXIMO_SESIONES_SOCIO = 8;
+
+    /**
+     * Error de inicio de sesión (el mismo si el socio no existe o si la contraseña es incorrecta).
+     */
+    private static final String CREDENCIALES_INCORRECTAS =
+            "El socio no existe o la contraseña es incorrecta. Intente de nuevo.";
+
+    /**
+     * Repositorio donde se guardan los libros, socios y calificaciones.
+     */
+    private final Repositorio repositorio;
+
+    /**
+     * Libros con sus calificaciones cargadas (las menos usadas se liberan).
+     */
+    private final CacheCalificaciones cacheCalificaciones;
+
+    /**
+     * Listados (ya armados) de los libros en préstamo, por identificador interno del socio.
+     */
+    private final CacheAcotada<Integer, String> listadosPrestamos;
+
+    /**
+     * The Socios, por numero de socio.
+     */
+    private final IndiceSocios socios;
+
+    /**
+     * The Catalogo de Libros (con indice por ISBN).
+     */
+    private final Catalogo libros;
+
+    /**
+     * Los libros mejor calificados (se actualiza con cada calificación).
+     */
+    private final RankingCalificaciones ranking;
+
+    /**
+     * Las sesiones abiertas: token de sesión -> sesión.
      */
+    private final Map<String, Sesion> sesiones;
 
+    /**
+     * Los tokens de las sesiones de cada socio (por identificador interno), de la más antigua a la más reciente.
+     * Puede tener tokens de sesiones ya cerradas o expiradas, que se descartan al abrir otra sesión del socio.
+     */
+    private final Map<Integer, Deque<String>> sesionesPorSocio;
+
+    /**
+     * Momento (System.nanoTime) en que se descartaron por última vez las sesiones expiradas.
+     */
+    private final AtomicLong ultimaDepuracion;
+
+    /**
+     * Generador de los tokens de sesión.
+     */
+    private final SecureRandom aleatorio;
+
+    /**
+     * The Sistema (con los archivos libros.json y socios.json).
+     */
     public Sistema() throws IOException {
+        this(new RepositorioJson(), ProgresoCarga.NINGUNO);
+    }
 
-        //No hay socio loggeado.
-        this.socios = new Socio[0];
-        this.libros = new Libro[0];
-        this.socio = null;
+    /**
+     * The Sistema.
+     *
+     * @param repositorio donde se guarda la información.
+     * @param progreso    que recibe el avance de la carga.
+     */
+    public Sistema(final Repositorio repositorio, final ProgresoCarga progreso) throws IOException {
+
+        //No hay sesiones abiertas.
+        this.sesiones = new ConcurrentHashMap<>();
+        this.sesionesPorSocio = new ConcurrentHashMap<>();
+        this.ultimaDepuracion = new AtomicLong(System.nanoTime());
+        this.aleatorio = new SecureRandom();
+        this.repositorio = repositorio;
+        this.cacheCalificaciones = new CacheCalificaciones(CAPACIDAD_CALIFICACIONES);
+        this.listadosPrestamos = new CacheAcotada<>(PRESUPUESTO_LISTADOS, listado -> 2L * listado.length());
 
         //Carga de libros y socios.
-        try {
-            this.cargarInformacion();
-        } catch (FileNotFoundException ex) {
+        Datos datos = this.repositorio.cargar(progreso);
+        this.socios = new IndiceSocios(datos.getSocios());
+        this.libros = new Catalogo(datos.getLibros());
+
+        if (this.socios.cantidad() == 0 && this.libros.cantidad() == 0) {
             //No se encuentran datos, por ende se agregan por defecto.
 
             //Se crea un socio
-            this.socios = Utils.append(this.socios, new Socio("John", "Doe", "john.doe@ucn.cl", 1, "john123"));
+            this.registrarSocio("John", "Doe", "john.doe@ucn.cl", 1, "john123");
 
             //Se crea un libro y se agrega
-            this.libros = Utils.append(this.libros, new Libro("1491910771", "Head First Java: A Brain-Friendly Guide", " Kathy Sierra", "Programming Languages"));
+            Libro libro1 = new Libro("1491910771", "Head First Java: A Brain-Friendly Guide", " Kathy Sierra", "Programming Languages");
+            this.libros.agregar(libro1);
+            this.repositorio.guardarNuevoLibro(libro1);
 
             //Se crea otro libro y también se agrega
-            this.libros = Utils.append(this.libros, new Libro("1491910772", "Effective Java", "Joshua Bloch", "Programming Languages"));
-        } finally {
-            //Se guarda la información
-            this.guardarInformacion();
+            Libro libro2 = new Libro("1491910772", "Effective Java", "Joshua Bloch", "Programming Languages");
+            this.libros.agregar(libro2);
+            this.repositorio.guardarNuevoLibro(libro2);
         }
+
+        this.ranking = new RankingCalificaciones(MINIMO_VOTOS_RANKING, this.libros);
+    }
+
+    /**
+     * Método registrarSocio:
+     * Crea un socio nuevo y lo guarda en el repositorio. El numero de socio no puede estar en uso.
+     *
+     * @param nombre            del socio.
+     * @param apellido          del socio.
+     * @param correoElectronico del socio.
+     * @param numeroDeSocio     del socio (único).
+     * @param contrasenia       del socio.
+     * @return el socio registrado.
+     * @throws IOException en caso de algun error al guardar.
+     */
+    public Socio registrarSocio(final String nombre, final String apellido, final String correoElectronico,
+                                final int numeroDeSocio, final String contrasenia) throws IOException {
+        Socio nuevo = new Socio(nombre, apellido, correoElectronico, numeroDeSocio, contrasenia);
+        this.socios.agregar(nuevo);
+        this.repositorio.guardarNuevoSocio(nuevo);
+        return nuevo;
+    }
+
+    /**
+     * Método sincronizar:
+     * Escribe de inmediato los cambios pendientes del repositorio.
+     *
+     * @throws IOException en caso de algun error.
+     */
+    public void sincronizar() throws IOException {
+        this.repositorio.sincronizar();
+    }
+
+    /**
+     * Método cerrar:
+     * Escribe los cambios pendientes y cierra el repositorio. Se debe llamar al terminar la aplicación.
+     *
+     * @throws IOException en caso de algun error.
+     */
+    public void cerrar() throws IOException {
+        this.repositorio.close();
     }
 
     /**
      * Método: iniciarSession
-     * Permite activar un socio dentro de la lista de socios, dándole el atributo de socio (de null, pasa a ser socio).
+     * Permite abrir una sesión para un socio dentro de la lista de socios. Un socio puede tener varias sesiones
+     * (a lo más MAXIMO_SESIONES_SOCIO: al abrir una más, se cierra la más antigua).
      *
      * @param numeroDeSocio a utilizar.
      * @param contrasenia   a validar.
+     * @return el token de la sesión, que se debe entregar en las operaciones del socio.
      */
-    public void iniciarSession(final int numeroDeSocio, final String contrasenia) throws Exception {
+    public String iniciarSession(final int numeroDeSocio, final String contrasenia) throws Exception {
 
         //Número de socio mayor que 0 (positivo).
         if (numeroDeSocio <= 0) {
             throw new IllegalArgumentException("El numero de socio no es válido. Ingrese una cantidad mayor a 0.");
         }
 
-        //Se busca el socio, y se retorna.
+        //Se busca el socio, y se retorna. Un socio que no existe tiene el mismo error que una contraseña incorrecta.
         Socio socio1 = buscarSocio(numeroDeSocio);
+        if (socio1 == null) {
+            throw new IllegalArgumentException(CREDENCIALES_INCORRECTAS);
+        }
 
         //Se verifica si la contraseña coincide, en ese caso se retorna true.
         boolean contraseniaCorrecta = verificarContraseniaSistema(contrasenia, socio1);
 
-        //Se realiza el loggeo de socio, permitiendo que tenga el atributo de socio.
-        loggearSocio(socio1, contraseniaCorrecta);
+        //Se realiza el loggeo de socio, abriendo su sesión.
+        return loggearSocio(socio1, contraseniaCorrecta);
     }
 
     /**
      * Método cerraSession:
-     * Cierra la sesión del socio.
-     * El socio loggeado = null
+     * Cierra la sesión del socio (el token deja de ser válido).
+     *
+     * @param sesion a cerrar.
      */
-    public void cerrarSession() {
-        this.socio = null;
+    public void cerrarSession(final String sesion) {
+        if (sesion != null) {
+            this.sesiones.remove(sesion);
+        }
     }
 
     /**
-     * Método realizarPrestamoLibro: ingresa un libro de los disponibles al socio, permitiendo el prestamo.
-     * Si el libro no se encuentra, no se puede realizar el préstamo (el libro es null)
-     * En caso contrario, se agrega a la lista de libros prestados por el socio.
+     * Método sesionActiva.
      *
-     * @param isbn (ISBN del libro a prestar).
+     * @param sesion token de la sesión.
+     * @return true si la sesión está abierta (y no ha expirado).
      */
-    public void realizarPrestamoLibro(final String isbn) throws Exception {
-        //El socio debe esta loggeado.
-        if (this.socio == null) {
+    public boolean sesionActiva(final String sesion) {
+        return this.usarSesion(sesion) != null;
+    }
+
+    /**
+     * Método socioDeSesion:
+     * Obtiene el socio de una sesión abierta.
+     *
+     * @param sesion token de la sesión.
+     * @return el socio de la sesión.
+     */
+    private Socio socioDeSesion(final String sesion) {
+        Socio socio = this.usarSesion(sesion);
+        if (socio == null) {
             throw new IllegalArgumentException("El socio no se ha logeado.");
         }
+        return socio;
+    }
+
+    /**
+     * Método usarSesion:
+     * Registra el uso de una sesión abierta. Si la sesión expiró, se cierra.
+     *
+     * @param sesion token de la sesión.
+     * @return el socio de la sesión, o null si la sesión no existe o expiró.
+     */
+    private Socio usarSesion(final String sesion) {
+        Sesion abierta = sesion == null ? null : this.sesiones.get(sesion);
+        if (abierta == null) {
+            return null;
+        }
+        long ahora = System.nanoTime();
+        if (abierta.expirada(ahora)) {
+            this.sesiones.remove(sesion, abierta);
+            return null;
+        }
+        abierta.ultimoUso = ahora;
+        return abierta.socio;
+    }
+
+    /**
+     * Método abrirSesion:
+     * Registra una sesión nueva del socio, y cierra la más antigua si el socio supera MAXIMO_SESIONES_SOCIO.
+     * Además, a lo más una vez cada DURACION_INACTIVIDAD, descarta todas las sesiones expiradas.
+     *
+     * @param socio de la sesión.
+     * @return el token de la sesión.
+     */
+    private String abrirSesion(final Socio socio) {
+        long ahora = System.nanoTime();
+        long anterior = this.ultimaDepuracion.get();
+        if (ahora - anterior > DURACION_INACTIVIDAD && this.ultimaDepuracion.compareAndSet(anterior, ahora)) {
+            this.sesiones.entrySet().removeIf(entry -> entry.getValue().expirada(ahora));
+        }
 
+        Sesion nueva = new Sesion(socio, ahora);
+        byte[] bytes = new byte[BYTES_TOKEN];
+        String sesion;
+        do {
+            this.aleatorio.nextBytes(bytes);
+            sesion = Base64.getUrlEncoder().withoutPadding().encodeToString(bytes);
+        } while (this.sesiones.putIfAbsent(sesion, nueva) != null);
+
+        Deque<String> tokens = this.sesionesPorSocio.computeIfAbsent(socio.getId(), id -> new ArrayDeque<>());
+        synchronized (tokens) {
+            tokens.removeIf(token -> !this.sesiones.containsKey(token));
+            tokens.addLast(sesion);
+            while (tokens.size() > MAXIMO_SESIONES_SOCIO) {
+                this.sesiones.remove(tokens.pollFirst());
+            }
+        }
+        return sesion;
+    }
 
-        // Se busca el libro.
+    /**
+     * Método realizarPrestamoLibro: ingresa un libro de los disponibles al socio, permitiendo el prestamo.
+     * Si el libro no se encuentra, no se puede realizar el préstamo (el libro es null)
+     * En caso contrario, se reserva el libro (atómicamente: si otro socio lo reservó antes, no se puede prestar) y
+     * se agrega a la lista de libros prestados por el socio. Si el socio ya tiene la cantidad maxima de libros, o
+     * si no se puede guardar la operación, el préstamo se deshace.
+     *
+     * @param sesion del socio.
+     * @param isbn   (ISBN del libro a prestar).
+     */
+    public void realizarPrestamoLibro(final String sesion, final String isbn) throws Exception {
+        //El socio debe esta loggeado.
+        Socio socio = this.socioDeSesion(sesion);
+
+        // Se busca el libro, y se reserva.
         Libro libro = this.buscarLibro(isbn);
 
-        if (libro == null) {
+        if (libro == null || !libro.reservar()) {
             throw new IllegalArgumentException("Libro con isbn " + isbn + " no existe o no se encuentra disponible.");
         }
 
-        // Se agrega el libro al socio.
-        this.socio.agregarLibro(libro);
+        try {
+            synchronized (socio) {
+                // Se agrega el libro al socio (si ya tiene el maximo, se libera la reserva).
+                try {
+                    socio.agregarLibro(libro);
+                } catch (IllegalArgumentException ex) {
+                    libro.liberar();
+                    throw ex;
+                }
+                this.listadosPrestamos.invalidar(socio.getId());
+
+                //Se guarda la operación (si no se puede guardar, se deshace el préstamo).
+                try {
+                    this.repositorio.guardarPrestamo(socio, libro);
+                } catch (IOException | RuntimeException ex) {
+                    socio.devolverLibro(libro);
+                    this.listadosPrestamos.invalidar(socio.getId());
+                    throw ex;
+                }
+            }
+        } finally {
+            // El catálogo refleja el estado final del libro, se haya hecho o no el préstamo.
+            this.libros.actualizarDisponibilidad(libro);
+        }
+    }
 
-        //Se obtiene la cantidad de libros del socio.
-        int cantidadLibros = cantidadLibrosSocio();
+    /**
+     * Método obtenerPaginaCatalogo:
+     * Obtiene una página del catálogo (en vez del catálogo completo), con vistas livianas de los libros.
+     * Para la primera página el cursor es null; para las siguientes, el cursor entregado por la página anterior.
+     * Si el filtro es DISPONIBLES, solo se incluyen los libros no prestados (para préstamo); si es TODOS,
+     * todos los libros del catálogo (para calificación).
+     *
+     * @param filtro  de los libros a incluir.
+     * @param cursor  de la página (null para la primera).
+     * @param tamanio maximo de la página.
+     * @return la página, con el cursor de la siguiente (null si es la última).
+     */
+    public PaginaCatalogo obtenerPaginaCatalogo(final FiltroCatalogo filtro, final String cursor, final int tamanio) {
+        return this.libros.pagina(filtro, cursor, tamanio);
+    }
 
-        //Se actualiza la información de los archivos.
-        this.guardarInformacion();
+    /**
+     * Método obtenerInstantaneaCatalogo:
+     * Obtiene el catálogo completo tal como está en este momento (inmutable): se puede recorrer sin candados, y no
+     * cambia con los préstamos, devoluciones o libros nuevos posteriores.
+     *
+     * @return la instantánea del catálogo.
+     */
+    public InstantaneaCatalogo obtenerInstantaneaCatalogo() {
+        return this.libros.instantanea();
     }
 
     /**
-     * Método (obtegerCatalogoLibros):
-     * Obtiene un String que representa el listado completo de libros disponibles.
-     * Se obtiene todos los libros disponibles ya sea para préstamo, o para calificar, después de recorrer la lista de libros.
-     * El parámetro que se trae al método es un código que diferencia la forma de desplegar el código.
-     * Si prestamo_calificacion es 0, se imprimirá para préstamo, todos los libros que estén disponibles (prestado = false).
-     * Si prestamo_calificacion es 1, se imprimirá para calificación, todos los libros en el catálogo.
-     * La cantidad de libros disponibles informa si existe al menos un libro, de forma contraria, se retorna null.
+     * Método obtenerCategorias:
+     * Obtiene las categorías del catálogo, con la cantidad de libros y de libros disponibles de cada una.
+     * Los contadores se mantienen al día con cada préstamo y devolución, por lo que no se recorre el catálogo.
      *
-     * @param prestamo_calificacion (el código que permite diferenciar si se desplegará para préstamo, o calificación).
-     * @return String con información de los libros disponibles.
-     * @throws Exception
+     * @return las categorías, ordenadas por nombre.
      */
-    public String obtegerCatalogoLibros(int prestamo_calificacion) throws Exception {
-        StringBuilder sb = new StringBuilder();
-        int cantidadLibrosDisponibles = 0;
-
-        if (prestamo_calificacion == 0) {
-            for (Libro libro : this.libros) {
-                //Se recorre toda la lista de libros (el catálogo).
-                //Si el libro no está prestado (disponible), se agrega al string.
-                if (!libro.getPrestado()) {
-                    cantidadLibrosDisponibles++;
-                    sb.append("Titulo    : ").append(libro.getTitulo()).append("\n");
-                    sb.append("Autor     : ").append(libro.getAutor()).append("\n");
-                    sb.append("ISBN      : ").append(libro.getIsbn()).append("\n");
-                    sb.append("Categoria : ").append(libro.getCategoria()).append("\n");
-                    sb.append("\n");
-                }
-            }
-            if (cantidadLibrosDisponibles > 0) {
-                //Si la cantidad de libros disponibles es mayor a 0, se retorna.
-                //o si no, null.
-                return sb.toString();
-            } else {
-                return null;
-            }
-        } else if (prestamo_calificacion == 1) {
-            for (Libro libro : this.libros) {
-                //Si el libro existe (es diferente de null), se agrega al string.
-                if (libro != null) {
-                    cantidadLibrosDisponibles++;
-                    sb.append("Titulo    : ").append(libro.getTitulo()).append("\n");
-                    sb.append("Autor     : ").append(libro.getAutor()).append("\n");
-                    sb.append("ISBN      : ").append(libro.getIsbn()).append("\n");
-                    sb.append("Categoria : ").append(libro.getCategoria()).append("\n");
-                    sb.append("\n");
-                }
-            }
-            return sb.toString();
-        }
-        //Se retorna null en caso que no hayan libros.
-        return null;
+    public List<FacetaCategoria> obtenerCategorias() {
+        return this.libros.categorias();
+    }
+
+    /**
+     * Método obtenerLibrosCategoria:
+     * Obtiene los libros de una categoría.
+     *
+     * @param categoria a buscar.
+     * @return los ISBN de los libros de la categoría (vacío si la categoría no existe).
+     */
+    public List<String> obtenerLibrosCategoria(final String categoria) {
+        return this.libros.librosDeCategoria(categoria);
     }
 
     /**
@@ -198,76 +447,103 @@ public final class Sistema {
      * @return el libro o null si no fue encontrado.
      */
     private Libro buscarLibro(final String isbn) {
-        // Se recorre el arreglo de libros.
-        for (Libro libro : this.libros) {
-            // Si se encuentra, se retorna el libro.
-            if (libro.getIsbn().equals(isbn)) {
-                return libro;
-            }
-        }
-        // No se encuentra, se retorna null.
-        return null;
+        // Se busca en el indice del catálogo.
+        return this.libros.buscar(isbn);
     }
 
     /**
-     * Lee los archivos libros.json y socios.json.
+     * Método buscarLibros:
+     * Busca libros por palabras del titulo o del autor. No distingue mayúsculas ni tildes, y cada palabra puede
+     * estar incompleta (por ejemplo, "garc marq" encuentra "Gabriel García Márquez").
      *
-     * @throws FileNotFoundException si alguno de los archivos no se encuentra.
+     * @param consulta con una o más palabras.
+     * @param maximo   de resultados.
+     * @return los ISBN de los libros que contienen todas las palabras, del más al menos relevante.
      */
-    private void cargarInformacion() throws FileNotFoundException {
-        // Se trata de leer los libros y socios desde el archivo.
-        this.socios = GSON.fromJson(new FileReader("socios.json"), Socio[].class);
-        this.libros = GSON.fromJson(new FileReader("libros.json"), Libro[].class);
+    public List<String> buscarLibros(final String consulta, final int maximo) {
+        return this.libros.buscarTexto(consulta, maximo);
     }
 
     /**
-     * Guarda los arreglos libros y socios en los archivos libros.json y socios.json.
+     * Método (obtenerDatosSocioLogeado()):
+     * Devuelve los datos del socio que está loggeado (nombre completo + correo electrónico).
      *
-     * @throws IOException en caso de algun error.
+     * @param sesion del socio.
+     * @return el nombre completo del socio, más su correo electrónico.
      */
-    private void guardarInformacion() throws IOException {
-        // Se guardan los socios.
-        try (FileWriter writer = new FileWriter("socios.json")) {
-            GSON.toJson(this.socios, writer);
-        }
 
-        // Se guardan los libros.
-        try (FileWriter writer = new FileWriter("libros.json")) {
-            GSON.toJson(this.libros, writer);
-        }
+    public String obtenerDatosSocioLogeado(final String sesion) {
+        Socio socio = this.socioDeSesion(sesion);
+
+        return "Nombre: " + socio.getNombreCompleto() + "\n"
+                + "Correo Electronico: " + socio.getCorreoElectronico();
     }
 
     /**
-     * Método (obtenerDatosSocioLogeado()):
-     * Devuelve los datos del socio que está loggeado (nombre completo + correo electrónico).
+     * Método obtenerVersionPerfil
      *
-     * @return el nombre completo del socio, más su correo electrónico.
+     * @param sesion del socio.
+     * @return la versión actual del perfil del socio, para un cambio condicional (actualizarPerfil).
      */
+    public int obtenerVersionPerfil(final String sesion) {
+        return this.socioDeSesion(sesion).getVersion();
+    }
 
-    public String obtenerDatosSocioLogeado() {
-        if (this.socio == null) {
-            throw new IllegalArgumentException("No hay un Socio logeado");
-        }
+    /**
+     * Método actualizarPerfil
+     * Cambio sin condición del perfil del socio: aplica juntos los datos indicados (los null se mantienen) sobre la
+     * versión actual. Luego se guarda el perfil en el repositorio.
+     *
+     * @param sesion      del socio.
+     * @param nombre      nuevo (o null).
+     * @param apellido    nuevo (o null).
+     * @param correo      nuevo (o null).
+     * @param contrasenia nueva (o null).
+     * @return la nueva versión del perfil.
+     * @throws IOException en caso de algun error.
+     */
+    public int actualizarPerfil(final String sesion, final String nombre, final String apellido, final String correo,
+                                final String contrasenia) throws IOException {
+        Socio socio = this.socioDeSesion(sesion);
+        int version = socio.actualizarPerfil(nombre, apellido, correo, contrasenia);
+        this.repositorio.guardarPerfil(socio);
+        return version;
+    }
 
-        return "Nombre: " + this.socio.getNombreCompleto() + "\n"
-                + "Correo Electronico: " + this.socio.getCorreoElectronico();
+    /**
+     * Método actualizarPerfil
+     * Cambio condicional del perfil del socio: aplica juntos los datos indicados (los null se mantienen), solo si
+     * el perfil sigue en la versión que leyó el socio. Si otra sesión lo cambió entre medio, falla de inmediato
+     * sin cambiar nada. Luego se guarda el perfil en el repositorio.
+     *
+     * @param sesion          del socio.
+     * @param nombre          nuevo (o null).
+     * @param apellido        nuevo (o null).
+     * @param correo          nuevo (o null).
+     * @param contrasenia     nueva (o null).
+     * @param versionEsperada del perfil (obtenerVersionPerfil).
+     * @return la nueva versión del perfil.
+     * @throws IOException                 en caso de algun error.
+     * @throws ConflictoDeVersionException si el perfil cambió desde la versión esperada.
+     */
+    public int actualizarPerfil(final String sesion, final String nombre, final String apellido, final String correo,
+                                final String contrasenia, final int versionEsperada) throws IOException {
+        Socio socio = this.socioDeSesion(sesion);
+        int version = socio.actualizarPerfil(nombre, apellido, correo, contrasenia, versionEsperada);
+        this.repositorio.guardarPerfil(socio);
+        return version;
     }
 
     /**
      * Método buscarSocio:
-     * Recorriendo todos los socios que están en el sistema, se busca el socio
+     * Usando el indice de socios, se busca el socio
      * que tenga el número de socio que llega desde el parámetro
      *
-     * @param numeroDeSocio del socio en cuestión, para poder identificarlo (asumiendo que los numeros de socio son únicos).
+     * @param numeroDeSocio del socio en cuestión, para poder identificarlo (los numeros de socio son únicos).
      * @return el socio como tal, null en caso que no se encuentre (no exista).
      */
     public Socio buscarSocio(int numeroDeSocio) {
-        for (int i = 0; i < socios.length; i++) {
-            if (numeroDeSocio == socios[i].getNumeroDeSocio()) {
-                return socios[i];
-            }
-        }
-        return null;
+        return this.socios.buscar(numeroDeSocio);
     }
 
     /**
@@ -289,20 +565,21 @@ public final class Sistema {
 
     /**
      * Método loggearSocio:
-     * Le da el estado de socio al socio, cuando se inicia sesión.
-     * El socio pasa a ser de null, a otro que esté en el arreglo de socios.
+     * Abre una sesión para el socio, cuando se inicia sesión: se genera un token aleatorio y se registra
+     * (token -> socio) en las sesiones abiertas.
      * En el caso que no se ingrese un socio que existe, o que la contraseña esté equivocada, se despliega un error.
      *
      * @param socio1              (el socio que llega desde afuera, luego de buscarlo con el método buscar socio).
      * @param contraseniaCorrecta (variable que demuestra si la contraseña es correcta (true = sí, false = no)).
+     * @return el token de la sesión.
      * @throws Exception
      */
 
-    public void loggearSocio(Socio socio1, boolean contraseniaCorrecta) throws Exception {
+    public String loggearSocio(Socio socio1, boolean contraseniaCorrecta) throws Exception {
         if (socio1 != null && contraseniaCorrecta) {
-            this.socio = socio1;
+            return this.abrirSesion(socio1);
         } else {
-            throw new IllegalArgumentException("El socio no existe o la contraseña es incorrecta. Intente de nuevo.");
+            throw new IllegalArgumentException(CREDENCIALES_INCORRECTAS);
         }
     }
 
@@ -318,39 +595,44 @@ public final class Sistema {
     /**
      * Método (cambioDeContrasenia):
      * Llama el método cambioDeContrasenia de la clase socio (método intermediario).
-     * Luego se guarda la información en los archivos.
+     * Luego se guarda la operación en el repositorio.
      *
+     * @param sesion del socio.
      * @param contrasenia (la contraseña nueva).
      * @throws IOException
      */
-    public void cambioDeContrasenia(String contrasenia) throws IOException {
+    public void cambioDeContrasenia(String sesion, String contrasenia) throws IOException {
+        Socio socio = this.socioDeSesion(sesion);
         socio.cambioDeContrasenia(contrasenia);
-        this.guardarInformacion();
+        this.repositorio.guardarPerfil(socio);
     }
 
     /**
      * Método (cambioDeCorreo):
      * Llama el método cambioDeCorreo de la clase socio (método intermediario).
-     * Luego se guarda la información en los archivos.
+     * Luego se guarda la operación en el repositorio.
      *
+     * @param sesion del socio.
      * @param correo (el correo nuevo)
      * @throws IOException
      */
 
-    public void cambioDeCorreo(String correo) throws IOException {
+    public void cambioDeCorreo(String sesion, String correo) throws IOException {
+        Socio socio = this.socioDeSesion(sesion);
         socio.cambioDeCorreo(correo);
-        this.guardarInformacion();
+        this.repositorio.guardarPerfil(socio);
     }
 
     /**
      * Método verificarCorreo
      * Permite verificar si el correo del socio loggeado coincide con el correo ingresado.
      *
+     * @param sesion del socio.
      * @param correo (correo ingresado)
      * @return true si el correo coincide, false en caso de que no.
      */
-    public boolean verificarCorreo(String correo) {
-        String correoDelSocio = socio.getCorreoElectronico();
+    public boolean verificarCorreo(String sesion, String correo) {
+        String correoDelSocio = this.socioDeSesion(sesion).getCorreoElectronico();
         if (correoDelSocio.equals(correo)) {
             return true;
         } else {
@@ -362,11 +644,12 @@ public final class Sistema {
      * Método verificarNombre
      * Permite verificar si el nombre del socio coincide con el nombre ingresado.
      *
+     * @param sesion del socio.
      * @param nombre (nombre ingresado)
      * @return true si el nombre coincide, false en caso de que no.
      */
-    public boolean verificarNombre(String nombre) {
-        String nombreDelSocio = socio.getNombre();
+    public boolean verificarNombre(String sesion, String nombre) {
+        String nombreDelSocio = this.socioDeSesion(sesion).getNombre();
         if (nombre.equals(nombreDelSocio)) {
             return true;
         } else {
@@ -377,25 +660,28 @@ public final class Sistema {
     /**
      * Método (cambioDeNombre):
      * Llama el método cambioDeNombre de la clase socio (método intermediario).
-     * Luego se guarda la información en los archivos.
+     * Luego se guarda la operación en el repositorio.
      *
+     * @param sesion del socio.
      * @param nombre (el nombre nuevo)
      * @throws IOException (excepción)
      */
-    public void cambioDeNombre(String nombre) throws IOException {
+    public void cambioDeNombre(String sesion, String nombre) throws IOException {
+        Socio socio = this.socioDeSesion(sesion);
         socio.cambioDeNombre(nombre);
-        this.guardarInformacion();
+        this.repositorio.guardarPerfil(socio);
     }
 
     /**
      * Método verificarApellido
      * Permite verificar si el apellido del socio coincide con el apellido ingresado.
      *
+     * @param sesion del socio.
      * @param apellido (apellido ingresado)
      * @return true si el apellido coincide, false en caso de que no.
      */
-    public boolean verificarApellido(String apellido) {
-        String apellidoDelSocio = socio.getApellido();
+    public boolean verificarApellido(String sesion, String apellido) {
+        String apellidoDelSocio = this.socioDeSesion(sesion).getApellido();
         if (apellidoDelSocio.equals(apellido)) {
             return true;
         } else {
@@ -406,98 +692,253 @@ public final class Sistema {
     /**
      * Método (cambioDeApellido):
      * Llama el método cambioDeApellido de la clase socio (método intermediario).
-     * Luego se guarda la información en los archivos.
+     * Luego se guarda la operación en el repositorio.
      *
+     * @param sesion del socio.
      * @param apellido (apellido nuevo)
      * @throws IOException (excepción)
      */
-    public void cambioDeApellido(String apellido) throws IOException {
+    public void cambioDeApellido(String sesion, String apellido) throws IOException {
+        Socio socio = this.socioDeSesion(sesion);
         socio.cambioDeApellido(apellido);
-        this.guardarInformacion();
+        this.repositorio.guardarPerfil(socio);
     }
 
     /**
      * Método obtenerLibro
-     * Permite buscar el libro (usando el isbn) en el arreglo de libros.
+     * Permite buscar el libro (usando el isbn) en el catálogo. Entrega una vista inmutable de la instantánea actual
+     * del catálogo: el libro del sistema solo se cambia con las operaciones del sistema.
      *
      * @param isbn (isbn del libro buscado)
-     * @return el libro si se encuentra, null si no.
+     * @return los datos del libro si se encuentra, null si no.
      */
-    public Libro obtenerLibro(String isbn) {
-        for (int i = 0; i < libros.length; i++) {
-            if (isbn.equals(libros[i].getIsbn())) {
-                return libros[i];
-            }
-        }
-        return null;
+    public VistaLibro obtenerLibro(String isbn) {
+        return this.libros.vista(isbn);
     }
 
     /**
      * Método (calificarLibro):
      * Llama el método sumarCalificacion de la clase libro (método intermediario).
-     * Luego se guarda la información en los archivos.
+     * Luego se guarda la operación en el repositorio (si no se puede guardar, la calificación se deshace).
      *
-     * @param libro     (el libro al que se le dará la calificación)
+     * @param sesion del socio.
+     * @param isbn      (isbn del libro al que se le dará la calificación)
      * @param estrellas (la cantidad de estrellas que tiene la calificación)
+     * @return la nueva versión de las calificaciones del libro.
      * @throws IOException (la excepción)
      */
 
-    public void calificarLibro(Libro libro, int estrellas) throws IOException {
-        libro.sumarCalificacion(estrellas, socio);
-        this.guardarInformacion();
+    public int calificarLibro(String sesion, String isbn, int estrellas) throws IOException {
+        return this.calificar(sesion, isbn, estrellas, null);
+    }
+
+    /**
+     * Método (calificarLibro):
+     * Calificación condicional: igual que la anterior, pero solo si el libro sigue en la versión que leyó el socio
+     * (obtenerVersionCalificaciones). Si otra sesión calificó el libro entre medio, falla de inmediato sin cambiar nada.
+     *
+     * @param sesion          del socio.
+     * @param isbn            (isbn del libro al que se le dará la calificación)
+     * @param estrellas       (la cantidad de estrellas que tiene la calificación)
+     * @param versionEsperada de las calificaciones del libro (obtenerVersionCalificaciones).
+     * @return la nueva versión de las calificaciones del libro.
+     * @throws IOException                 (la excepción)
+     * @throws ConflictoDeVersionException si el libro recibió otra calificación.
+     */
+    public int calificarLibro(String sesion, String isbn, int estrellas, int versionEsperada) throws IOException {
+        return this.calificar(sesion, isbn, estrellas, versionEsperada);
+    }
+
+    /**
+     * Método calificar: califica el libro con el candado del libro (la versión se revisa en Libro.sumarCalificacion),
+     * y guarda la calificación. Si no se puede guardar, se deshace (calificación, totales y ranking) antes de
+     * soltar el candado, y se informa el error.
+     *
+     * @param sesion          del socio.
+     * @param isbn            del libro.
+     * @param estrellas       de la calificación.
+     * @param versionEsperada de las calificaciones del libro (null para calificar sin condición).
+     * @return la nueva versión de las calificaciones del libro.
+     * @throws IOException en caso de algun error (la calificación no queda hecha).
+     */
+    private int calificar(final String sesion, final String isbn, final int estrellas, final Integer versionEsperada)
+            throws IOException {
+        Socio socio = this.socioDeSesion(sesion);
+        Libro libro = this.libroExistente(isbn);
+        int version;
+        synchronized (libro) {
+            this.asegurarCalificaciones(libro);
+            int anterior = versionEsperada == null
+                    ? libro.sumarCalificacion(estrellas, socio)
+                    : libro.sumarCalificacion(estrellas, socio, versionEsperada);
+            this.ranking.actualizar(libro);
+            try {
+                this.repositorio.guardarCalificacion(libro, socio, estrellas);
+            } catch (IOException | RuntimeException ex) {
+                libro.deshacerCalificacion(socio.getNumeroDeSocio(), anterior);
+                this.ranking.actualizar(libro);
+                throw ex;
+            }
+            version = libro.getVersion();
+        }
+        this.cacheCalificaciones.usar(libro);
+        return version;
+    }
+
+    /**
+     * Método obtenerCalificacion
+     * Obtiene la calificación promedio del libro (desde la suma y cantidad de votos del libro, por lo que no se
+     * cargan sus calificaciones).
+     *
+     * @param isbn (isbn del libro del que se obtiene la calificación)
+     * @return la calificación promedio del libro.
+     */
+    public double obtenerCalificacion(String isbn) {
+        return this.libroExistente(isbn).getCalificacion();
+    }
+
+    /**
+     * Método obtenerVotos
+     *
+     * @param isbn del libro.
+     * @return la cantidad de calificaciones del libro.
+     */
+    public int obtenerVotos(final String isbn) {
+        return this.libroExistente(isbn).getCantidadVotos();
+    }
+
+    /**
+     * Método obtenerVersionCalificaciones
+     *
+     * @param isbn del libro.
+     * @return la versión actual de las calificaciones del libro, para una calificación condicional (calificarLibro).
+     */
+    public int obtenerVersionCalificaciones(final String isbn) {
+        return this.libroExistente(isbn).getVersion();
+    }
+
+    /**
+     * Método libroExistente
+     *
+     * @param isbn del libro.
+     * @return el libro del catálogo.
+     * @throws IllegalArgumentException si el libro no existe.
+     */
+    private Libro libroExistente(final String isbn) {
+        Libro libro = this.buscarLibro(isbn);
+        if (libro == null) {
+            throw new IllegalArgumentException("Libro con isbn " + isbn + " no existe.");
+        }
+        return libro;
+    }
+
+    /**
+     * Método obtenerMejorCalificados
+     * Obtiene los libros con mejor calificación promedio, entre los que tienen una cantidad minima de votos.
+     * El ranking se mantiene al día con cada calificación, por lo que no se ordena el catálogo.
+     *
+     * @param cantidad  maxima de libros.
+     * @param categoria de los libros (null para todas las categorías).
+     * @return los ISBN de los libros, del mejor al peor calificado.
+     */
+    public List<String> obtenerMejorCalificados(final int cantidad, final String categoria) {
+        return this.ranking.mejores(cantidad, categoria);
+    }
+
+    /**
+     * Método asegurarCalificaciones
+     * Carga desde el repositorio las calificaciones del libro, si no están en memoria. Se llama con el candado del
+     * libro tomado; despues (sin el candado) se registra el libro como usado en el cache de calificaciones.
+     *
+     * @param libro (el libro que necesita sus calificaciones)
+     * @throws IOException (la excepción)
+     */
+    private void asegurarCalificaciones(Libro libro) throws IOException {
+        if (!libro.calificacionesCargadas()) {
+            libro.cargarCalificaciones(this.repositorio.cargarCalificaciones(libro));
+        }
     }
 
     /**
      * Método cantidadLibrosSocio (método intermediario)
      *
+     * @param sesion del socio.
      * @return la cantidad de libros actual del socio, desde el método getCantidadLibros
      */
 
-    public int cantidadLibrosSocio() {
-        return socio.getCantidadLibros();
+    public int cantidadLibrosSocio(String sesion) {
+        return this.socioDeSesion(sesion).getCantidadLibros();
     }
 
     /**
      * Método cantidadMaximaLibrosSocio (método intermediario)
      *
+     * @param sesion del socio.
      * @return la cantidad máxima de libros del socio, desde el método getCantidadMaximaLibros
      */
-    public int cantidadMaximaLibrosSocio() {
-        return socio.getCantidadMaximaLibros();
+    public int cantidadMaximaLibrosSocio(String sesion) {
+        return this.socioDeSesion(sesion).getCantidadMaximaLibros();
     }
 
     /**
      * Método obtenerLibrosSocio (método intermediario)
      *
+     * El listado se guarda, y se vuelve a armar solo despues de un préstamo o devolución del socio.
+     *
+     * @param sesion del socio.
      * @return String que conforma todos los libros en préstamo del socio.
      */
 
-    public String obtenerLibrosSocio() {
-        return socio.obtenerLibrosEnPrestamo();
+    public String obtenerLibrosSocio(String sesion) {
+        Socio socio = this.socioDeSesion(sesion);
+        synchronized (socio) {
+            String listado = this.listadosPrestamos.obtener(socio.getId());
+            if (listado == null) {
+                listado = socio.obtenerLibrosEnPrestamo();
+                this.listadosPrestamos.guardar(socio.getId(), listado);
+            }
+            return listado;
+        }
     }
 
     /**
      * Método realizarDevolucionLibro
      * Permite devolver el libro de un socio.
      * Primero se busca si existe el libro que se quiere devolver, y luego se envía
-     * al método devolverLibro del socio. Luego se guarda la información.
+     * al socio, que lo quita de sus libros en préstamo. Luego se guarda la operación en el repositorio, y solo
+     * entonces se libera el libro: si no se puede guardar, el libro vuelve al socio (mientras tanto nadie más lo
+     * pudo tomar prestado).
      *
+     * @param sesion del socio.
      * @param isbn del libro que se devolverá.
      * @throws IOException (excepción)
      */
 
-    public void realizarDevolucionLibro(String isbn) throws IOException {
-        if (this.socio == null) {
-            throw new IllegalArgumentException("Socio no se ha logeado!");
-        }
+    public void realizarDevolucionLibro(String sesion, String isbn) throws IOException {
+        Socio socio = this.socioDeSesion(sesion);
 
         Libro libro = this.buscarLibro(isbn);
         if (libro == null) {
             throw new IllegalArgumentException("Libro con isbn " + isbn + " no existe o no se encuentra disponible.");
         }
 
-        this.socio.devolverLibro(libro);
-        this.guardarInformacion();
+        try {
+            synchronized (socio) {
+                socio.quitarLibro(libro);
+                this.listadosPrestamos.invalidar(socio.getId());
+                try {
+                    this.repositorio.guardarDevolucion(socio, libro);
+                } catch (IOException | RuntimeException ex) {
+                    socio.agregarLibro(libro);
+                    this.listadosPrestamos.invalidar(socio.getId());
+                    throw ex;
+                }
+                libro.liberar();
+            }
+        } finally {
+            // El catálogo refleja el estado final del libro, se haya hecho o no la devolución.
+            this.libros.actualizarDisponibilidad(libro);
+        }
     }
 
     /**
@@ -505,16 +946,52 @@ public final class Sistema {
      * Hace lo mismo que el método de verificarContraseniaSistema, pero esta vez
      * haciendo referencia al socio en cuestión (en el otro método, el socio es null).
      *
+     * @param sesion del socio.
      * @param contrasenia ingresada
      * @return true si coincide, false si no.
      */
 
-    public boolean verificarContraseniaSocioLoggeado(String contrasenia) {
-        String contraseniaDelSocio = socio.getContrasenia();
+    public boolean verificarContraseniaSocioLoggeado(String sesion, String contrasenia) {
+        String contraseniaDelSocio = this.socioDeSesion(sesion).getContrasenia();
         if (contrasenia.equals(contraseniaDelSocio)) {
             return true;
         } else {
             return false;
         }
     }
-}
\ No newline at end of file
+
+    /**
+     * Una sesión abierta.
+     */
+    private static final class Sesion {
+
+        /**
+         * El socio de la sesión.
+         */
+        private final Socio socio;
+
+        /**
+         * Momento (System.nanoTime) del último uso de la sesión.
+         */
+        private volatile long ultimoUso;
+
+        /**
+         * The Constructor.
+         *
+         * @param socio     de la sesión.
+         * @param ultimoUso momento en que se abre la sesión.
+         */
+        Sesion(final Socio socio, final long ultimoUso) {
+            this.socio = socio;
+            this.ultimoUso = ultimoUso;
+        }
+
+        /**
+         * @param ahora momento actual (System.nanoTime).
+         * @return true si la sesión lleva más de DURACION_INACTIVIDAD sin usarse.
+         */
+        boolean expirada(final long ahora) {
+            return ahora - this.ultimoUso > DURACION_INACTIVIDAD;
+        }
+    }
+}
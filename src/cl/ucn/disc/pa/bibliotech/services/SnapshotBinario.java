@@ -0,0 +1,277 @@
+/*
+ * Copyright (c) 2023. Programacion Avanzada, DISC, UCN.
+ */
+
+package cl.ucn.disc.pa.bibliotech.services;
+
+import cl.ucn.disc.pa.bibliotech.model.Libro;
+import cl.ucn.disc.pa.bibliotech.model.Socio;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Copia binaria y compacta de los libros y los socios, para un inicio rápido del sistema. Las calificaciones no
+ * se incluyen: se cargan por libro cuando se necesitan.
+ * Se escribe a traves de un FileChannel y se lee mapeando el archivo en memoria (MappedByteBuffer), sin pasar por
+ * el procesador de JSON. Los archivos JSON siguen siendo el formato de intercambio.
+ * <p>
+ * Opcionalmente el archivo se comprime con GZIP; al leer se detecta por sus primeros bytes, y en ese caso se
+ * descomprime completo en memoria antes de leerlo.
+ * <p>
+ * Formato: MAGIA, VERSION, cantidad de libros y sus datos, cantidad de socios y sus datos. Los préstamos de cada
+ * socio se guardan como el ISBN del libro, y al leer se enlazan con los libros del mismo archivo.
+ *
+ * @author Programacion Avanzada.
+ */
+final class SnapshotBinario {
+
+    /**
+     * Identificador del formato ("BTSN").
+     */
+    private static final int MAGIA = 0x4254534E;
+
+    /**
+     * Version del formato.
+     */
+    private static final int VERSION = 3;
+
+    /**
+     * Tamaño del buffer de escritura.
+     */
+    private static final int TAMANIO_BUFFER = 64 * 1024;
+
+    /**
+     * Constructor privado: nadie puede instanciar esta clase.
+     */
+    private SnapshotBinario() {
+        // nothing here
+    }
+
+    /**
+     * Método existe.
+     *
+     * @param archivo a revisar.
+     * @return true si existe la copia binaria.
+     */
+    static boolean existe(final String archivo) {
+        return Files.exists(Paths.get(archivo));
+    }
+
+    /**
+     * Método eliminar: borra la copia binaria (por ejemplo, porque quedó desactualizada).
+     *
+     * @param archivo a borrar.
+     * @throws IOException en caso de algun error.
+     */
+    static void eliminar(final String archivo) throws IOException {
+        Files.deleteIfExists(Paths.get(archivo));
+    }
+
+    /**
+     * Método escribir: guarda los libros y socios en el archivo binario (de forma atómica).
+     *
+     * @param archivo   destino.
+     * @param libros    a guardar.
+     * @param socios    a guardar.
+     * @param comprimir si el archivo se comprime con GZIP.
+     * @throws IOException en caso de algun error.
+     */
+    static void escribir(final String archivo, final Libro[] libros, final Socio[] socios, final boolean comprimir)
+            throws IOException {
+        ArchivoAtomico.escribir(archivo, channel -> {
+            GZIPOutputStream gzip = comprimir ? Compresion.comprimir(Channels.newOutputStream(channel)) : null;
+            Escritor escritor = new Escritor(gzip == null ? channel : Channels.newChannel(gzip));
+            escritor.entero(MAGIA);
+            escritor.entero(VERSION);
+
+            escritor.entero(libros.length);
+            for (Libro libro : libros) {
+                escritor.texto(libro.getIsbn());
+                escritor.texto(libro.getTitulo());
+                escritor.texto(libro.getAutor());
+                escritor.texto(libro.getCategoria());
+                escritor.entero(libro.getPrestado() ? 1 : 0);
+                escritor.entero(libro.getSumaEstrellas());
+                escritor.entero(libro.getCantidadVotos());
+            }
+
+            escritor.entero(socios.length);
+            for (Socio socio : socios) {
+                escritor.texto(socio.getNombre());
+                escritor.texto(socio.getApellido());
+                escritor.texto(socio.getCorreoElectronico());
+                escritor.entero(socio.getNumeroDeSocio());
+                escritor.texto(socio.getContrasenia());
+
+                Libro[] prestamos = socio.getLibrosEnPrestamo();
+                escritor.entero(prestamos.length);
+                for (Libro libro : prestamos) {
+                    escritor.texto(libro.getIsbn());
+                }
+            }
+            escritor.terminar();
+            if (gzip != null) {
+                // Se termina el bloque GZIP sin cerrar el canal (se fuerza al disco despues).
+                gzip.finish();
+            }
+        });
+    }
+
+    /**
+     * Método leer: carga los libros y socios desde el archivo binario.
+     *
+     * @param archivo a leer.
+     * @return los datos leidos, o null si el archivo no tiene el formato (o la version) esperado.
+     * @throws IOException en caso de algun error.
+     */
+    static Datos leer(final String archivo) throws IOException {
+        Path path = Paths.get(archivo);
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (buffer.remaining() >= 2 && Compresion.esGzip(buffer.get(0), buffer.get(1))) {
+                buffer = ByteBuffer.wrap(Compresion.abrir(Channels.newInputStream(channel)).readAllBytes());
+            }
+
+            if (buffer.remaining() < 2 * Integer.BYTES || buffer.getInt() != MAGIA || buffer.getInt() != VERSION) {
+                return null;
+            }
+
+            Libro[] libros = new Libro[buffer.getInt()];
+            Map<String, Libro> porIsbn = new HashMap<>(libros.length * 2);
+            for (int i = 0; i < libros.length; i++) {
+                Libro libro = new Libro(texto(buffer), texto(buffer), texto(buffer), texto(buffer));
+                boolean prestado = buffer.getInt() == 1;
+                libro.descargarCalificaciones();
+                libro.restaurarTotales(buffer.getInt(), buffer.getInt());
+
+                // El estado se restaura despues de enlazar los préstamos.
+                libro.setPrestado(prestado);
+                libros[i] = libro;
+                porIsbn.put(libro.getIsbn(), libro);
+            }
+
+            Socio[] socios = new Socio[buffer.getInt()];
+            for (int i = 0; i < socios.length; i++) {
+                Socio socio = new Socio(texto(buffer), texto(buffer), texto(buffer), buffer.getInt(), texto(buffer));
+
+                int cantidadPrestamos = buffer.getInt();
+                for (int j = 0; j < cantidadPrestamos; j++) {
+                    Libro libro = porIsbn.get(texto(buffer));
+                    if (libro != null) {
+                        boolean prestado = libro.getPrestado();
+                        socio.agregarLibro(libro);
+                        libro.setPrestado(prestado);
+                    }
+                }
+                socios[i] = socio;
+            }
+            return new Datos(libros, socios);
+        }
+    }
+
+    /**
+     * Lee un texto (largo en bytes + UTF-8) directamente desde el archivo mapeado.
+     *
+     * @param buffer mapeado.
+     * @return el texto.
+     */
+    private static String texto(final ByteBuffer buffer) {
+        int largo = buffer.getInt();
+        ByteBuffer bytes = buffer.slice(buffer.position(), largo);
+        buffer.position(buffer.position() + largo);
+        return StandardCharsets.UTF_8.decode(bytes).toString();
+    }
+
+    /**
+     * Escribe enteros y textos al canal, a traves de un buffer.
+     */
+    private static final class Escritor {
+
+        /**
+         * Canal de destino.
+         */
+        private final WritableByteChannel channel;
+
+        /**
+         * Buffer de escritura.
+         */
+        private final ByteBuffer buffer;
+
+        /**
+         * The Constructor.
+         *
+         * @param channel de destino.
+         */
+        Escritor(final WritableByteChannel channel) {
+            this.channel = channel;
+            this.buffer = ByteBuffer.allocateDirect(TAMANIO_BUFFER);
+        }
+
+        /**
+         * Escribe un entero.
+         *
+         * @param valor a escribir.
+         * @throws IOException en caso de algun error.
+         */
+        void entero(final int valor) throws IOException {
+            this.asegurar(Integer.BYTES);
+            this.buffer.putInt(valor);
+        }
+
+        /**
+         * Escribe un texto: largo en bytes y luego los bytes en UTF-8.
+         *
+         * @param valor a escribir.
+         * @throws IOException en caso de algun error.
+         */
+        void texto(final String valor) throws IOException {
+            byte[] bytes = valor.getBytes(StandardCharsets.UTF_8);
+            this.entero(bytes.length);
+
+            int escritos = 0;
+            while (escritos < bytes.length) {
+                this.asegurar(1);
+                int largo = Math.min(this.buffer.remaining(), bytes.length - escritos);
+                this.buffer.put(bytes, escritos, largo);
+                escritos += largo;
+            }
+        }
+
+        /**
+         * Vacía el buffer si no quedan los bytes necesarios.
+         *
+         * @param bytes necesarios.
+         * @throws IOException en caso de algun error.
+         */
+        private void asegurar(final int bytes) throws IOException {
+            if (this.buffer.remaining() < bytes) {
+                this.terminar();
+            }
+        }
+
+        /**
+         * Escribe en el canal todo lo que queda en el buffer.
+         *
+         * @throws IOException en caso de algun error.
+         */
+        void terminar() throws IOException {
+            this.buffer.flip();
+            while (this.buffer.hasRemaining()) {
+                this.channel.write(this.buffer);
+            }
+            this.buffer.clear();
+        }
+    }
+}
@@ -0,0 +1,250 @@
+/*
+ * Copyright (c) 2023. Programacion Avanzada, DISC, UCN.
+ */
+
+package cl.ucn.disc.pa.bibliotech.util;
+
+/**
+ * Tabla hash de direccionamiento abierto (sondeo lineal) de llaves int a valores int no negativos, sin crear un
+ * Integer ni un nodo por elemento. Usa dos arreglos paralelos (llaves y valores); en el arreglo de valores se guarda
+ * el valor más 1, de modo que 0 marca una posición libre. Si los valores son pequeños (el valor máximo indicado al
+ * crearla cabe en un byte), se guardan en un arreglo de bytes: cada elemento ocupa 5 bytes en vez de 8.
+ * <p>
+ * Agregar, cambiar o buscar es de tiempo constante (amortizado: la tabla duplica su capacidad al llenarse a 3/4).
+ * No usa candados: quien la usa desde varios hilos debe sincronizar el acceso.
+ *
+ * @author Programacion Avanzada.
+ */
+public final class TablaEnteros {
+
+    /**
+     * Capacidad minima de la tabla (potencia de 2).
+     */
+    private static final int CAPACIDAD_MINIMA = 4;
+
+    /**
+     * Las llaves de cada posición.
+     */
+    private int[] llaves;
+
+    /**
+     * Valor máximo que se puede guardar.
+     */
+    private final int maximoValor;
+
+    /**
+     * Los valores más 1 de cada posición (0 si la posición está libre), si no caben en un byte (si no, es null).
+     */
+    private int[] valores;
+
+    /**
+     * Los valores más 1 de cada posición (0 si la posición está libre), si caben en un byte (si no, es null).
+     */
+    private byte[] valoresCortos;
+
+    /**
+     * Cantidad de llaves en la tabla.
+     */
+    private int cantidad;
+
+    /**
+     * The Constructor: los valores pueden ser cualquier int no negativo (menor a Integer.MAX_VALUE).
+     *
+     * @param cantidadEsperada de llaves (para no hacer crecer la tabla al cargarlas).
+     */
+    public TablaEnteros(final int cantidadEsperada) {
+        this(cantidadEsperada, Integer.MAX_VALUE - 1);
+    }
+
+    /**
+     * The Constructor.
+     *
+     * @param cantidadEsperada de llaves (para no hacer crecer la tabla al cargarlas).
+     * @param maximoValor      que se puede guardar (si es menor a Byte.MAX_VALUE, los valores se guardan en bytes).
+     */
+    public TablaEnteros(final int cantidadEsperada, final int maximoValor) {
+        if (maximoValor < 0 || maximoValor == Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Valor maximo no válido: " + maximoValor);
+        }
+        int capacidad = CAPACIDAD_MINIMA;
+        while (capacidad * 3 < cantidadEsperada * 4) {
+            capacidad <<= 1;
+        }
+        this.maximoValor = maximoValor;
+        this.crearArreglos(capacidad);
+        this.cantidad = 0;
+    }
+
+    /**
+     * Método guardar: agrega la llave con su valor, o reemplaza el valor que ya tenía.
+     *
+     * @param llave a guardar.
+     * @param valor de la llave (entre 0 y el valor máximo de la tabla).
+     * @return el valor anterior de la llave, o -1 si no estaba.
+     */
+    public int guardar(final int llave, final int valor) {
+        if (valor < 0 || valor > this.maximoValor) {
+            throw new IllegalArgumentException("Valor no válido: " + valor);
+        }
+        int posicion = this.posicion(llave);
+        int anterior = this.valorEn(posicion);
+        this.llaves[posicion] = llave;
+        this.asignar(posicion, valor + 1);
+        if (anterior >= 0) {
+            return anterior;
+        }
+
+        this.cantidad++;
+        if (this.cantidad * 4 > this.llaves.length * 3) {
+            this.crecer();
+        }
+        return -1;
+    }
+
+    /**
+     * Método quitar: saca la llave de la tabla. Las llaves que siguen en la misma secuencia de sondeo se corren
+     * hacia atrás, para que la tabla no necesite marcas de borrado.
+     *
+     * @param llave a quitar.
+     * @return el valor que tenía la llave, o -1 si no estaba.
+     */
+    public int quitar(final int llave) {
+        int libre = this.posicion(llave);
+        int anterior = this.valorEn(libre);
+        if (anterior < 0) {
+            return -1;
+        }
+
+        int mascara = this.llaves.length - 1;
+        this.asignar(libre, 0);
+        for (int posicion = (libre + 1) & mascara; this.valorEn(posicion) >= 0; posicion = (posicion + 1) & mascara) {
+            // La llave se puede correr si la posición libre está entre su posición ideal y la actual.
+            int ideal = hash(this.llaves[posicion]) & mascara;
+            if (((posicion - ideal) & mascara) >= ((posicion - libre) & mascara)) {
+                this.llaves[libre] = this.llaves[posicion];
+                this.asignar(libre, this.valorEn(posicion) + 1);
+                this.asignar(posicion, 0);
+                libre = posicion;
+            }
+        }
+        this.cantidad--;
+        return anterior;
+    }
+
+    /**
+     * Método buscar.
+     *
+     * @param llave a buscar.
+     * @return el valor de la llave, o -1 si no está.
+     */
+    public int buscar(final int llave) {
+        return this.valorEn(this.posicion(llave));
+    }
+
+    /**
+     * @return la cantidad de llaves en la tabla.
+     */
+    public int cantidad() {
+        return this.cantidad;
+    }
+
+    /**
+     * @return la cantidad de posiciones de la tabla (para recorrerla con llaveEn y valorEn).
+     */
+    public int capacidad() {
+        return this.llaves.length;
+    }
+
+    /**
+     * Método llaveEn.
+     *
+     * @param posicion de la tabla.
+     * @return la llave de la posición (sin sentido si la posición está libre).
+     */
+    public int llaveEn(final int posicion) {
+        return this.llaves[posicion];
+    }
+
+    /**
+     * Método valorEn.
+     *
+     * @param posicion de la tabla.
+     * @return el valor de la posición, o -1 si la posición está libre.
+     */
+    public int valorEn(final int posicion) {
+        return (this.valores != null ? this.valores[posicion] : this.valoresCortos[posicion]) - 1;
+    }
+
+    /**
+     * Método asignar.
+     *
+     * @param posicion    de la tabla.
+     * @param valorMasUno a guardar en la posición (0 la deja libre).
+     */
+    private void asignar(final int posicion, final int valorMasUno) {
+        if (this.valores != null) {
+            this.valores[posicion] = valorMasUno;
+        } else {
+            this.valoresCortos[posicion] = (byte) valorMasUno;
+        }
+    }
+
+    /**
+     * Método crearArreglos: crea los arreglos (vacíos) de llaves y valores.
+     *
+     * @param capacidad de la tabla (potencia de 2).
+     */
+    private void crearArreglos(final int capacidad) {
+        this.llaves = new int[capacidad];
+        if (this.maximoValor < Byte.MAX_VALUE) {
+            this.valoresCortos = new byte[capacidad];
+        } else {
+            this.valores = new int[capacidad];
+        }
+    }
+
+    /**
+     * Método posicion: sondeo lineal desde la posición del hash de la llave.
+     *
+     * @param llave a ubicar.
+     * @return la posición de la llave, o la posición libre donde se agregaría.
+     */
+    private int posicion(final int llave) {
+        int mascara = this.llaves.length - 1;
+        int posicion = hash(llave) & mascara;
+        while (this.valorEn(posicion) >= 0 && this.llaves[posicion] != llave) {
+            posicion = (posicion + 1) & mascara;
+        }
+        return posicion;
+    }
+
+    /**
+     * Método crecer: duplica la capacidad de la tabla y reubica todas las llaves.
+     */
+    private void crecer() {
+        int[] llavesAnteriores = this.llaves;
+        int[] valoresAnteriores = this.valores;
+        byte[] valoresCortosAnteriores = this.valoresCortos;
+        this.crearArreglos(llavesAnteriores.length * 2);
+
+        for (int i = 0; i < llavesAnteriores.length; i++) {
+            int valorMasUno = valoresAnteriores != null ? valoresAnteriores[i] : valoresCortosAnteriores[i];
+            if (valorMasUno != 0) {
+                int posicion = this.posicion(llavesAnteriores[i]);
+                this.llaves[posicion] = llavesAnteriores[i];
+                this.asignar(posicion, valorMasUno);
+            }
+        }
+    }
+
+    /**
+     * Método hash: mezcla los bits de la llave, para que llaves consecutivas no queden en posiciones consecutivas.
+     *
+     * @param llave a mezclar.
+     * @return el hash de la llave.
+     */
+    private static int hash(final int llave) {
+        int h = llave * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+}